@@ -103,6 +103,23 @@ YourMod.gen.setDefaultOffset(structure.getOffsetX(), structure.getOffsetY(), str
 YourMod.gen.generate(world, world.rand, x, y, z);
 }
 }
+/*
+A List works fine for a handful of structures, but 'get(1)' on a LinkedList has to walk the
+list every time, and if you ever add a structure in the middle all of your indices shift. If
+you have lots of structures, take a look at 'StructureRegistry' in the supplementary folder:
+each structure gets a fixed id when registered and can be looked up by its name instead, and
+its blocks aren't even loaded until you first ask for it. What you get back is a compact
+'PackedStructure' rather than a Structure, which you place with a 'StructurePlacer' instead of
+'generate'. Loading may have to read a file, so be ready for an IOException:
+
+try {
+	PackedStructure home = MyStructureGenerator.structures.get("Tutorial Home");
+	int facing = MathHelper.floor_double((double)(player.rotationYaw * 4.0F / 360.0F) + 0.5D) & 3;
+	new StructurePlacer(YourMod.gen).place(world, home, x, y, z, BlockRotation.getRotations(home.getFacing(), facing));
+} catch (IOException e) {
+	e.printStackTrace();
+}
+*/
 /**
  * Step 2: Setting up a Custom Hook
  */
@@ -0,0 +1,44 @@
+package coolalias.structuregen;
+
+/**
+ * Steps through the blocks of a structure one at a time, in the same order as the block
+ * arrays: y (bottom to top), then x, then z. Positions left empty ('{}') are skipped.
+ *
+ * A cursor reads straight from wherever the blocks are stored, so going through a structure
+ * made of several stacked block arrays never needs a combined copy of them:
+ *
+ * BlockCursor cursor = new StackedArrayCursor(structure);
+ * while (cursor.next()) {
+ *     world.setBlock(x + cursor.getX(), y + cursor.getY(), z + cursor.getZ(), cursor.getBlockID(), cursor.getMetadata(), 3);
+ * }
+ *
+ * A cursor can only be used once and only by one thread.
+ */
+public interface BlockCursor
+{
+	/** Moves to the next non-empty position, returning false once there are no more */
+	boolean next();
+
+	/** Size of the volume the cursor steps through; shorter rows or columns are padded with empty positions */
+	int getWidthX();
+
+	int getHeight();
+
+	int getWidthZ();
+
+	/** Position of the current block within the structure */
+	int getX();
+
+	int getY();
+
+	int getZ();
+
+	/** Values of the current block; any value missing from its block array entry is 0 */
+	int getBlockID();
+
+	int getMetadata();
+
+	int getCustomData1();
+
+	int getCustomData2();
+}
@@ -0,0 +1,234 @@
+package coolalias.structuregen;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockAnvil;
+import net.minecraft.block.BlockButton;
+import net.minecraft.block.BlockChest;
+import net.minecraft.block.BlockDirectional;
+import net.minecraft.block.BlockDispenser;
+import net.minecraft.block.BlockDoor;
+import net.minecraft.block.BlockEndPortalFrame;
+import net.minecraft.block.BlockEnderChest;
+import net.minecraft.block.BlockFurnace;
+import net.minecraft.block.BlockHopper;
+import net.minecraft.block.BlockLadder;
+import net.minecraft.block.BlockLever;
+import net.minecraft.block.BlockMushroomCap;
+import net.minecraft.block.BlockPistonBase;
+import net.minecraft.block.BlockPistonExtension;
+import net.minecraft.block.BlockQuartz;
+import net.minecraft.block.BlockRailBase;
+import net.minecraft.block.BlockRotatedPillar;
+import net.minecraft.block.BlockSign;
+import net.minecraft.block.BlockSkull;
+import net.minecraft.block.BlockStairs;
+import net.minecraft.block.BlockTorch;
+import net.minecraft.block.BlockTrapDoor;
+import net.minecraft.block.BlockTripWireSource;
+import net.minecraft.block.BlockVine;
+
+/**
+ * Helper methods for rotating block array coordinates and metadata by 90 degree steps.
+ *
+ * All rotations are clockwise when viewed from above, using the same facing values as
+ * StructureGeneratorBase: SOUTH = 0, WEST = 1, NORTH = 2, EAST = 3. Rotating clockwise
+ * once turns a structure facing SOUTH to face WEST, and so on, i.e. facing + 1.
+ *
+ * Call buildRotationTable() once all blocks have been registered, e.g. in your mod's postInit.
+ * From then on rotateMetadata is a single array lookup rather than a check of every type of
+ * rotatable block. Blocks from your own or other mods that don't extend one of the vanilla
+ * classes below can be made rotatable with registerRotation.
+ */
+public class BlockRotation
+{
+	/**
+	 * Precomputed metadata for every block id and metadata value, indexed by
+	 * [rotations - 1][blockID << 4 | meta]; null until buildRotationTable is called
+	 */
+	private static volatile byte[][] rotationTable;
+
+	/** Clockwise metadata rotations registered for custom blocks, indexed by block id */
+	private static final int[][] customRotations = new int[4096][];
+
+	private BlockRotation() {}
+
+	/**
+	 * Registers the metadata values for a custom block after one clockwise rotation,
+	 * indexed by the current metadata; e.g. {0,1,5,4,2,3} for a block using the same
+	 * 2-5 facings as a furnace. Rebuilds the rotation table if it was already built.
+	 */
+	public static void registerRotation(int blockID, int[] clockwiseMeta) {
+		if (clockwiseMeta.length > 16) {
+			throw new IllegalArgumentException("Rotation for block " + blockID + " has more than 16 metadata values");
+		}
+		customRotations[blockID] = clockwiseMeta.clone();
+		if (rotationTable != null) {
+			buildRotationTable();
+		}
+	}
+
+	/**
+	 * Precomputes the rotated metadata of every block for each number of rotations
+	 */
+	public static synchronized void buildRotationTable() {
+		byte[][] table = new byte[3][Block.blocksList.length << 4];
+		for (int blockID = 0; blockID < Block.blocksList.length; ++blockID) {
+			Block block = Block.blocksList[blockID];
+			for (int meta = 0; meta < 16; ++meta) {
+				int rotated = meta;
+				for (int rotations = 1; rotations < 4; ++rotations) {
+					rotated = (block == null ? meta : rotateOnce(block, rotated));
+					table[rotations - 1][(blockID << 4) | meta] = (byte) rotated;
+				}
+			}
+		}
+		rotationTable = table;
+	}
+
+	/**
+	 * Returns the number of clockwise 90 degree rotations needed to turn a structure
+	 * with the given default facing so that it faces 'facing'
+	 */
+	public static int getRotations(int structureFacing, int facing) {
+		return (facing - structureFacing) & 3;
+	}
+
+	/** Returns the x offset of local block array coordinates x/z after rotating about the origin */
+	public static int rotateX(int x, int z, int rotations) {
+		switch(rotations & 3) {
+		case 1: return -z;
+		case 2: return -x;
+		case 3: return z;
+		default: return x;
+		}
+	}
+
+	/** Returns the z offset of local block array coordinates x/z after rotating about the origin */
+	public static int rotateZ(int x, int z, int rotations) {
+		switch(rotations & 3) {
+		case 1: return x;
+		case 2: return -z;
+		case 3: return -x;
+		default: return z;
+		}
+	}
+
+	/**
+	 * Returns the metadata for the block rotated clockwise the given number of times
+	 */
+	public static int rotateMetadata(int blockID, int meta, int rotations) {
+		byte[][] table = rotationTable;
+		if ((rotations & 3) == 0) {
+			return meta;
+		} else if (table != null && blockID >= 0 && blockID < Block.blocksList.length && meta >= 0 && meta < 16) {
+			return table[(rotations & 3) - 1][(blockID << 4) | meta];
+		}
+		Block block = (blockID > 0 && blockID < Block.blocksList.length ? Block.blocksList[blockID] : null);
+		if (block == null) {
+			return meta;
+		}
+		for (int i = 0; i < (rotations & 3); ++i) {
+			meta = rotateOnce(block, meta);
+		}
+		return meta;
+	}
+
+	/**
+	 * Returns the metadata for the block after a single clockwise rotation;
+	 * blocks that aren't rotatable simply return the same metadata
+	 */
+	private static int rotateOnce(Block block, int meta) {
+		int[] custom = customRotations[block.blockID];
+		if (custom != null) {
+			return (meta < custom.length ? custom[meta] : meta);
+		}
+		if (block instanceof BlockStairs) {
+			// 0 east, 1 west, 2 south, 3 north; +4 upside down
+			return (meta & ~3) | STAIRS[meta & 3];
+		}
+		if (block instanceof BlockDoor) {
+			// bottom half: 0 west, 1 north, 2 east, 3 south, +4 open; top half only stores the hinge
+			return ((meta & 8) != 0 ? meta : (meta & ~3) | ((meta + 1) & 3));
+		}
+		if (block instanceof BlockDirectional || block instanceof BlockAnvil
+				|| block instanceof BlockTripWireSource || block instanceof BlockEndPortalFrame) {
+			// beds, pumpkins, fence gates, repeaters, comparators and cocoa extend BlockDirectional;
+			// anvils, tripwire hooks and end portal frames don't but store their facing the same way:
+			// 0 south, 1 west, 2 north, 3 east in the lowest two bits
+			return (meta & ~3) | ((meta + 1) & 3);
+		}
+		if (block instanceof BlockChest || block instanceof BlockEnderChest || block instanceof BlockFurnace
+				|| block instanceof BlockLadder || block instanceof BlockSkull) {
+			// 2 north, 3 south, 4 west, 5 east; anything else is on the floor
+			return rotateFacing(meta, 7);
+		}
+		if (block instanceof BlockSign) {
+			// sign posts have 16 rotations, wall signs use the same values as ladders
+			return (block.blockID == Block.signPost.blockID ? (meta + 4) & 15 : rotateFacing(meta, 7));
+		}
+		if (block instanceof BlockDispenser || block instanceof BlockHopper
+				|| block instanceof BlockPistonBase || block instanceof BlockPistonExtension) {
+			// 0 down, 1 up, 2-5 as above; +8 for powered / extended
+			return rotateFacing(meta, 7);
+		}
+		if (block instanceof BlockLever) {
+			// 1-4 walls as for torches, 5/6 floor and 7/0 ceiling along either axis; +8 on
+			switch(meta & 7) {
+			case 0: return (meta & 8) | 7;
+			case 5: return (meta & 8) | 6;
+			case 6: return (meta & 8) | 5;
+			case 7: return (meta & 8);
+			default: return (meta & 8) | TORCH[meta & 7];
+			}
+		}
+		if (block instanceof BlockTorch || block instanceof BlockButton) {
+			// 1 east, 2 west, 3 south, 4 north, 5 floor; +8 pressed
+			return (meta & 8) | TORCH[meta & 7];
+		}
+		if (block instanceof BlockTrapDoor) {
+			// 0 south, 1 north, 2 east, 3 west wall; +4 open, +8 top half
+			return (meta & ~3) | TRAPDOOR[meta & 3];
+		}
+		if (block instanceof BlockVine) {
+			// bit flags: 1 south, 2 west, 4 north, 8 east
+			return ((meta << 1) | (meta >> 3)) & 15;
+		}
+		if (block instanceof BlockRailBase) {
+			if (block.blockID == Block.rail.blockID) {
+				return RAIL[meta & 15];
+			}
+			// powered rails can't curve; +8 powered
+			return (meta & 8) | RAIL[meta & 7];
+		}
+		if (block instanceof BlockMushroomCap) {
+			return MUSHROOM[meta & 15];
+		}
+		if (block instanceof BlockQuartz) {
+			// 3 north-south pillar, 4 east-west pillar
+			return (meta == 3 ? 4 : meta == 4 ? 3 : meta);
+		}
+		if (block instanceof BlockRotatedPillar) {
+			// logs and hay bales: 4 east-west, 8 north-south; 0 upright and 12 all bark stay the same
+			switch(meta & 12) {
+			case 4: return (meta & 3) | 8;
+			case 8: return (meta & 3) | 4;
+			default: return meta;
+			}
+		}
+		return meta;
+	}
+
+	/** Rotates a 2 north, 3 south, 4 west, 5 east facing stored in the masked bits */
+	private static int rotateFacing(int meta, int mask) {
+		return (meta & ~mask) | FACING[meta & mask];
+	}
+
+	/** Clockwise rotation lookups for metadata values, indexed by the current value */
+	private static final int[]
+		STAIRS = {2, 3, 1, 0},
+		TORCH = {0, 3, 4, 2, 1, 5, 6, 7},
+		FACING = {0, 1, 5, 4, 2, 3, 6, 7},
+		TRAPDOOR = {3, 2, 0, 1},
+		RAIL = {1, 0, 5, 4, 2, 3, 7, 8, 9, 6, 10, 11, 12, 13, 14, 15},
+		MUSHROOM = {0, 3, 6, 9, 2, 5, 8, 1, 4, 7, 10, 11, 12, 13, 14, 15};
+}
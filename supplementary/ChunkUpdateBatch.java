@@ -0,0 +1,137 @@
+package coolalias.structuregen;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.Packet52MultiBlockChange;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+
+/**
+ * Collects the positions of blocks changed without telling clients (setBlock with flag 1),
+ * grouped by chunk, and then sends them all at once: a single multi-block change packet per
+ * chunk, or the changed sections of the whole chunk if more than the threshold number of
+ * blocks changed in it. This replaces one packet per block with at most one per chunk.
+ *
+ * ChunkUpdateBatch updates = new ChunkUpdateBatch();
+ * world.setBlock(x, y, z, blockID, meta, 1);
+ * updates.add(x, y, z);
+ * ...
+ * updates.send(world);
+ */
+public class ChunkUpdateBatch
+{
+	/** Vanilla also switches from block changes to resending sections past 64 blocks */
+	public static final int DEFAULT_THRESHOLD = 64;
+
+	private final int threshold;
+
+	private final Map<Long, ChunkChanges> chunks = new HashMap<Long, ChunkChanges>();
+
+	/** Chunk of the last position added, so runs of positions in one chunk skip the lookup */
+	private ChunkChanges last;
+
+	public ChunkUpdateBatch() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param threshold Maximum number of changed blocks in a chunk sent as a multi-block change;
+	 *                  chunks with more are resent in full
+	 */
+	public ChunkUpdateBatch(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/** Returns true if no changes are waiting to be sent */
+	public boolean isEmpty() {
+		return chunks.isEmpty();
+	}
+
+	/** Adds the changed position; positions added more than once are sent more than once */
+	public void add(int x, int y, int z) {
+		int chunkX = x >> 4, chunkZ = z >> 4;
+		if (last == null || last.chunkX != chunkX || last.chunkZ != chunkZ) {
+			Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+			last = chunks.get(key);
+			if (last == null) {
+				last = new ChunkChanges(chunkX, chunkZ, threshold);
+				chunks.put(key, last);
+			}
+		}
+		last.add(x & 15, y, z & 15);
+	}
+
+	/**
+	 * Sends all changes to the players watching each chunk and clears the batch; does nothing
+	 * but clear it on the client side
+	 */
+	public void send(World world) {
+		if (world instanceof WorldServer) {
+			for (ChunkChanges changes : chunks.values()) {
+				if (changes.count > threshold) {
+					StructurePlacer.sendToWatchingPlayers(world, changes.chunkX, changes.chunkZ, changes.sectionMask);
+				} else {
+					sendChanges((WorldServer) world, changes);
+				}
+			}
+		}
+		chunks.clear();
+		last = null;
+	}
+
+	private static void sendChanges(WorldServer world, ChunkChanges changes) {
+		Packet packet = null;
+		for (Object entity : world.playerEntities) {
+			EntityPlayerMP player = (EntityPlayerMP) entity;
+			if (!world.getPlayerManager().isPlayerWatchingChunk(player, changes.chunkX, changes.chunkZ)) {
+				continue;
+			}
+			if (packet == null) {
+				packet = new Packet52MultiBlockChange(changes.chunkX, changes.chunkZ, changes.positions, changes.count, world);
+			}
+			player.playerNetServerHandler.sendPacketToPlayer(packet);
+			for (int n = 0; n < changes.count; ++n) {
+				int x = (changes.chunkX << 4) + (changes.positions[n] >> 12 & 15);
+				int y = changes.positions[n] & 255;
+				int z = (changes.chunkZ << 4) + (changes.positions[n] >> 8 & 15);
+				TileEntity te = world.getBlockTileEntity(x, y, z);
+				Packet description = (te != null ? te.getDescriptionPacket() : null);
+				if (description != null) {
+					player.playerNetServerHandler.sendPacketToPlayer(description);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Changed positions within a single chunk, packed as x << 12 | z << 8 | y like the
+	 * multi-block change packet expects; once past the threshold only the count and the
+	 * changed sections are kept
+	 */
+	private static final class ChunkChanges
+	{
+		private final int chunkX, chunkZ;
+		private final short[] positions;
+		private int count;
+		private int sectionMask;
+
+		private ChunkChanges(int chunkX, int chunkZ, int threshold) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			this.positions = new short[threshold];
+		}
+
+		private void add(int x, int y, int z) {
+			if (count < positions.length) {
+				positions[count] = (short) (x << 12 | z << 8 | y);
+			}
+			++count;
+			sectionMask |= 1 << (y >> 4);
+		}
+	}
+}
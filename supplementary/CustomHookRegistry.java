@@ -0,0 +1,101 @@
+package coolalias.structuregen;
+
+import net.minecraft.world.World;
+
+/**
+ * Looks up custom hook handlers directly by array index, fakeID - 4096, instead of going
+ * through a switch statement for every hook placed.
+ *
+ * In your StructureGenerator, simply forward both abstract methods to the registry:
+ *
+ * public int getRealBlockID(int fakeID, int customData1) {
+ *     return hooks.getRealBlockID(fakeID, customData1);
+ * }
+ * public void onCustomBlockAdded(World world, int x, int y, int z, int fakeID, int customData1, int customData2) {
+ *     hooks.onCustomBlockAdded(this, world, x, y, z, fakeID, customData1, customData2);
+ * }
+ */
+public class CustomHookRegistry
+{
+	/** The lowest custom hook id; anything below is a real block id */
+	public static final int FIRST_HOOK_ID = StructurePlacer.FIRST_HOOK_ID;
+
+	/** Handlers indexed by fakeID - FIRST_HOOK_ID */
+	private volatile ICustomHook[] handlers = new ICustomHook[16];
+
+	/**
+	 * Registers the handler for the custom hook id, which must be at least 4096
+	 * @throws IllegalArgumentException if the id is too low or already has a handler
+	 */
+	public synchronized void register(int fakeID, ICustomHook handler) {
+		int index = fakeID - FIRST_HOOK_ID;
+		if (index < 0) {
+			throw new IllegalArgumentException("Custom hook ids must be at least " + FIRST_HOOK_ID + ", got " + fakeID);
+		}
+		ICustomHook[] array = handlers;
+		if (index >= array.length) {
+			ICustomHook[] grown = new ICustomHook[Math.max(index + 1, array.length * 2)];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			array = grown;
+		}
+		if (array[index] != null) {
+			throw new IllegalArgumentException("Custom hook id " + fakeID + " is already registered");
+		}
+		array[index] = handler;
+		handlers = array;
+	}
+
+	/** Returns the handler registered for the custom hook id, or null if there is none */
+	public ICustomHook get(int fakeID) {
+		ICustomHook[] array = handlers;
+		int index = fakeID - FIRST_HOOK_ID;
+		return (index >= 0 && index < array.length ? array[index] : null);
+	}
+
+	/** Returns the real block id for the custom hook, or 0 (air) if it has no handler */
+	public int getRealBlockID(int fakeID, int customData1) {
+		ICustomHook handler = get(fakeID);
+		return (handler == null ? 0 : handler.getRealBlockID(customData1));
+	}
+
+	/** Runs the handler for the custom hook, if there is one */
+	public void onCustomBlockAdded(StructureGeneratorBase generator, World world, int x, int y, int z, int fakeID, int customData1, int customData2) {
+		ICustomHook handler = get(fakeID);
+		if (handler != null) {
+			handler.onHookPlaced(generator, world, x, y, z, customData1, customData2);
+		}
+	}
+
+	/**
+	 * Collects custom hooks as their blocks are placed, so they can all be run together once
+	 * every real block of the structure exists
+	 */
+	public static final class Batch
+	{
+		private final StructurePlacer.IntList hooks = new StructurePlacer.IntList();
+
+		public void add(int x, int y, int z, int fakeID, int customData1, int customData2) {
+			hooks.add(x, y);
+			hooks.add(z, fakeID);
+			hooks.add(customData1, customData2);
+		}
+
+		/** Returns the number of hooks waiting to run */
+		public int size() {
+			return hooks.size() / 6;
+		}
+
+		/**
+		 * Runs every collected hook through the generator, in the order added, then clears the
+		 * batch; each hook is counted in StructureMetrics.current()
+		 */
+		public void run(StructureGeneratorBase generator, World world) {
+			StructureMetrics metrics = StructureMetrics.current();
+			for (int n = 0; n < hooks.size(); n += 6) {
+				generator.onCustomBlockAdded(world, hooks.get(n), hooks.get(n + 1), hooks.get(n + 2), hooks.get(n + 3), hooks.get(n + 4), hooks.get(n + 5));
+				metrics.addHook(hooks.get(n + 3));
+			}
+			hooks.clear();
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package coolalias.structuregen;
+
+/**
+ * Reference class for all custom hook ids used in block arrays, as set up in
+ * StructureArrayTutorialPart2. Custom hook ids start at 4096, just past the last
+ * valid Forge block id.
+ */
+public class CustomHooks
+{
+	public static final int CUSTOM_CHEST = 4096;
+
+	// customData1 is the item id to display, customData2 its rotation
+	public static final int ITEM_FRAME = 4097;
+
+	// I use negative values here so I can still use customData1 to define itemIDs in generic CUSTOM_CHESTs
+	public static final int
+		CHEST_HOUSE_1 = -1,
+		CHEST_HOUSE_2 = -2,
+		// customData2 is the number of items rolled from the loot table
+		CHEST_LOOT_COMMON = -3;
+}
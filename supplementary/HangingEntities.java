@@ -0,0 +1,193 @@
+package coolalias.structuregen;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minecraft.entity.EntityHanging;
+import net.minecraft.entity.item.EntityItemFrame;
+import net.minecraft.entity.item.EntityPainting;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.network.packet.Packet25EntityPainting;
+import net.minecraft.util.EnumArt;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import cpw.mods.fml.common.network.PacketDispatcher;
+
+/**
+ * Versions of setHangingEntity, setItemFrameStack and setPaintingArt from StructureGeneratorBase
+ * that remember every item frame and painting they place, by position and direction. Setting
+ * the item or art afterwards is then a map lookup instead of searching the world's entities
+ * around the position, which gets slower with every frame already hanging nearby.
+ *
+ * Only entities placed through the same HangingEntities can be found, so there is one for
+ * each structure being placed: StructurePlacer makes one for every placement and each
+ * StructureGenerationJob keeps its own until it finishes. Hooks get the one for the structure
+ * they are part of from current():
+ *
+ * HangingEntities hanging = HangingEntities.current();
+ * int direction = hanging.setHangingEntity(world, new ItemStack(Item.itemFrame), x, y, z);
+ * hanging.setItemFrameStack(world, new ItemStack(Item.compass), x, y, z, direction, 0);
+ */
+public class HangingEntities
+{
+	/** The entities of the structure being placed on each thread */
+	private static final ThreadLocal<HangingEntities> current = new ThreadLocal<HangingEntities>();
+
+	/** Entities placed so far, by the key from getKey */
+	private final Map<Long, EntityHanging> entities = new HashMap<Long, EntityHanging>();
+
+	/**
+	 * Returns the entities of the structure being placed on this thread, for hooks to use, or
+	 * a new, empty HangingEntities if nothing is being placed
+	 */
+	public static HangingEntities current() {
+		HangingEntities result = current.get();
+		return (result == null ? new HangingEntities() : result);
+	}
+
+	/**
+	 * Makes 'entities' current on this thread and returns whatever was current before, which
+	 * must be passed to exit once done, in a finally block
+	 */
+	static HangingEntities enter(HangingEntities entities) {
+		HangingEntities previous = current.get();
+		current.set(entities);
+		return previous;
+	}
+
+	/** Restores the entities returned from enter */
+	static void exit(HangingEntities previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * Places an item frame or painting at x/y/z, hanging on the wall that the wall mounted
+	 * block there (e.g. a torch returned from getRealBlockID) is attached to, and removes
+	 * the block. Returns the direction the entity faces, for setItemFrameStack and
+	 * setPaintingArt, or -1 if nothing was placed.
+	 */
+	public int setHangingEntity(World world, ItemStack hanging, int x, int y, int z) {
+		if (world.isRemote || (hanging.itemID != Item.itemFrame.itemID && hanging.itemID != Item.painting.itemID)) {
+			return -1;
+		}
+		int direction = getDirection(world.getBlockMetadata(x, y, z));
+		if (direction < 0) {
+			return -1;
+		}
+		// the entity's own position is the block it hangs on, behind the placeholder
+		int wallX = x + (direction == 1 ? 1 : direction == 3 ? -1 : 0);
+		int wallZ = z + (direction == 0 ? -1 : direction == 2 ? 1 : 0);
+		EntityHanging entity;
+		if (hanging.itemID == Item.painting.itemID) {
+			entity = new EntityPainting(world, wallX, y, wallZ, direction);
+		} else {
+			entity = new EntityItemFrame(world, wallX, y, wallZ, direction);
+		}
+		// checked before the placeholder is removed, so it stays if nothing can hang there
+		if (!entity.onValidSurface()) {
+			return -1;
+		}
+		world.setBlockToAir(x, y, z);
+		world.spawnEntityInWorld(entity);
+		StructureMetrics.current().addEntitySpawned();
+		entities.put(getKey(x, y, z, direction), entity);
+		return direction;
+	}
+
+	/**
+	 * Puts the item in the frame placed at x/y/z, facing the direction returned from
+	 * setHangingEntity, with the given rotation (0 to 3). Returns false if no such frame was
+	 * placed or it has since been removed.
+	 */
+	public boolean setItemFrameStack(World world, ItemStack itemstack, int x, int y, int z, int direction, int itemRotation) {
+		EntityHanging entity = get(x, y, z, direction);
+		if (!(entity instanceof EntityItemFrame)) {
+			return false;
+		}
+		EntityItemFrame frame = (EntityItemFrame) entity;
+		frame.setDisplayedItem(itemstack);
+		frame.setItemRotation(itemRotation & 3);
+		return true;
+	}
+
+	/**
+	 * Sets the art of the painting placed at x/y/z, facing the direction returned from
+	 * setHangingEntity, and sends it to nearby players. Returns false if no such painting was
+	 * placed, 'name' didn't match any EnumArt title or the art doesn't fit on the wall there.
+	 */
+	public boolean setPaintingArt(World world, String name, int x, int y, int z, int direction) {
+		EntityHanging entity = get(x, y, z, direction);
+		if (!(entity instanceof EntityPainting)) {
+			return false;
+		}
+		EntityPainting painting = (EntityPainting) entity;
+		EnumArt previous = painting.art;
+		for (EnumArt art : EnumArt.values()) {
+			if (art.title.equals(name)) {
+				painting.art = art;
+				// updates the bounding box for the new size
+				painting.setDirection(direction);
+				if (!painting.onValidSurface()) {
+					painting.art = previous;
+					painting.setDirection(direction);
+					return false;
+				}
+				if (world instanceof WorldServer) {
+					// the painting was already sent to clients with its old art
+					PacketDispatcher.sendPacketToAllAround(painting.posX, painting.posY, painting.posZ, 64.0D, world.provider.dimensionId, new Packet25EntityPainting(painting));
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the item frame or painting placed at x/y/z facing the direction, or null if there
+	 * is none or it has been removed from the world since
+	 */
+	public EntityHanging get(int x, int y, int z, int direction) {
+		Long key = getKey(x, y, z, direction);
+		EntityHanging entity = entities.get(key);
+		if (entity != null && entity.isDead) {
+			entities.remove(key);
+			return null;
+		}
+		return entity;
+	}
+
+	/** Returns the number of entities remembered */
+	public int size() {
+		return entities.size();
+	}
+
+	/** Forgets every entity placed so far, e.g. once the structure is finished */
+	public void clear() {
+		entities.clear();
+	}
+
+	/**
+	 * Returns the direction (0 south, 1 west, 2 north, 3 east) an entity faces when hung in
+	 * place of a wall mounted block with the given metadata, as for torches, or -1 if the
+	 * block isn't on a wall
+	 */
+	private static int getDirection(int meta) {
+		switch (meta & 7) {
+		case 1: return 3;
+		case 2: return 1;
+		case 3: return 0;
+		case 4: return 2;
+		default: return -1;
+		}
+	}
+
+	/** Packs x and z into 26 bits each, y into 8 and the direction into 2 */
+	private static Long getKey(int x, int y, int z, int direction) {
+		return Long.valueOf(((long) (x & 0x3FFFFFF) << 36) | ((long) (z & 0x3FFFFFF) << 10) | ((y & 255) << 2) | (direction & 3));
+	}
+}
@@ -0,0 +1,23 @@
+package coolalias.structuregen;
+
+import net.minecraft.world.World;
+
+/**
+ * Handles a single custom hook id, replacing one 'case' of the switch statements in
+ * getRealBlockID and onCustomBlockAdded; register it with a CustomHookRegistry.
+ */
+public interface ICustomHook
+{
+	/**
+	 * Returns the real block id to place for this hook, as getRealBlockID would
+	 */
+	public int getRealBlockID(int customData1);
+
+	/**
+	 * Called once the block returned by getRealBlockID has been placed, as onCustomBlockAdded
+	 * would be. When placing with StructurePlacer this is only called after every block of the
+	 * structure exists, so neighboring blocks and tile entities are already in place.
+	 * @param generator The generator placing the structure, for its helper methods such as addItemToTileInventory
+	 */
+	public void onHookPlaced(StructureGeneratorBase generator, World world, int x, int y, int z, int customData1, int customData2);
+}
@@ -0,0 +1,224 @@
+package coolalias.structuregen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.minecraft.inventory.IInventory;
+import net.minecraft.item.ItemStack;
+
+/**
+ * A weighted list of items for filling chests and other inventories placed by custom hooks,
+ * much like the vanilla WeightedRandomChestContent lists.
+ *
+ * The weights are compiled once into an alias table when the LootTable is built, so picking an
+ * item takes the same short time no matter how many entries there are. Filling an inventory
+ * looks at each slot only once to find the free and partially filled slots, and then places
+ * every rolled stack without scanning from slot 0 again.
+ *
+ * public static final LootTable HOUSE_LOOT = new LootTable.Builder()
+ *     .add(new ItemStack(Item.bread), 1, 4, 10)
+ *     .add(new ItemStack(Item.ingotIron), 1, 3, 5)
+ *     .add(new ItemStack(Item.diamond), 1, 1, 1)
+ *     .build();
+ *
+ * LootTable.fillInventory(chest, HOUSE_LOOT, 6, world.rand);
+ */
+public class LootTable
+{
+	/** Item to place for each entry; copied whenever it is placed */
+	private final ItemStack[] items;
+
+	/** Minimum and maximum stack size rolled for each entry */
+	private final int[] minCount, maxCount;
+
+	/** Alias table: entry i is kept with probability chance[i], otherwise alias[i] is used */
+	private final double[] chance;
+	private final int[] alias;
+
+	private LootTable(List<Entry> entries) {
+		int n = entries.size();
+		items = new ItemStack[n];
+		minCount = new int[n];
+		maxCount = new int[n];
+		chance = new double[n];
+		alias = new int[n];
+		double totalWeight = 0;
+		for (int i = 0; i < n; ++i) {
+			Entry entry = entries.get(i);
+			items[i] = entry.item;
+			minCount[i] = entry.min;
+			maxCount[i] = entry.max;
+			totalWeight += entry.weight;
+		}
+		// Vose's alias method: scale weights so the average is 1, then pair each entry below 1
+		// with one above 1 that makes up the rest of its column
+		double[] scaled = new double[n];
+		int[] small = new int[n], large = new int[n];
+		int numSmall = 0, numLarge = 0;
+		for (int i = 0; i < n; ++i) {
+			scaled[i] = entries.get(i).weight * n / totalWeight;
+			if (scaled[i] < 1.0D) {
+				small[numSmall++] = i;
+			} else {
+				large[numLarge++] = i;
+			}
+		}
+		while (numSmall > 0 && numLarge > 0) {
+			int less = small[--numSmall], more = large[--numLarge];
+			chance[less] = scaled[less];
+			alias[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1.0D;
+			if (scaled[more] < 1.0D) {
+				small[numSmall++] = more;
+			} else {
+				large[numLarge++] = more;
+			}
+		}
+		// anything left over is (within rounding error) exactly 1
+		while (numLarge > 0) {
+			chance[large[--numLarge]] = 1.0D;
+		}
+		while (numSmall > 0) {
+			chance[small[--numSmall]] = 1.0D;
+		}
+	}
+
+	/** Returns the number of entries in the table */
+	public int size() {
+		return items.length;
+	}
+
+	/** Picks an entry according to the weights */
+	public int sampleEntry(Random rand) {
+		int i = rand.nextInt(items.length);
+		return (rand.nextDouble() < chance[i] ? i : alias[i]);
+	}
+
+	/** Picks an entry according to the weights and returns a new stack of it with a random stack size */
+	public ItemStack sample(Random rand) {
+		int i = sampleEntry(rand);
+		ItemStack stack = items[i].copy();
+		stack.stackSize = minCount[i] + (maxCount[i] > minCount[i] ? rand.nextInt(maxCount[i] - minCount[i] + 1) : 0);
+		return stack;
+	}
+
+	/**
+	 * Rolls the loot table the given number of times and places all resulting stacks into the
+	 * inventory; returns the number of items that didn't fit
+	 */
+	public static int fillInventory(IInventory inventory, LootTable table, int rolls, Random rand) {
+		if (table.size() == 0 || rolls <= 0) {
+			return 0;
+		}
+		ItemStack[] stacks = new ItemStack[rolls];
+		for (int i = 0; i < rolls; ++i) {
+			stacks[i] = table.sample(rand);
+		}
+		return addToInventory(inventory, stacks, rand);
+	}
+
+	/**
+	 * Places all of the stacks into the inventory, first topping up slots already holding the
+	 * same item, then using empty slots picked at random (or in order if rand is null); the
+	 * stacks passed in are never modified. Returns the number of items that didn't fit.
+	 */
+	public static int addToInventory(IInventory inventory, ItemStack[] stacks, Random rand) {
+		int size = inventory.getSizeInventory();
+		int limit = inventory.getInventoryStackLimit();
+		// one pass to sort the slots into empty and partially filled
+		int[] free = new int[size], partial = new int[size];
+		int numFree = 0, numPartial = 0;
+		for (int slot = 0; slot < size; ++slot) {
+			ItemStack stack = inventory.getStackInSlot(slot);
+			if (stack == null) {
+				free[numFree++] = slot;
+			} else if (stack.isStackable() && stack.stackSize < Math.min(limit, stack.getMaxStackSize())) {
+				partial[numPartial++] = slot;
+			}
+		}
+		int leftOver = 0;
+		for (ItemStack toAdd : stacks) {
+			if (toAdd == null) {
+				continue;
+			}
+			int remaining = toAdd.stackSize;
+			int max = Math.min(limit, toAdd.getMaxStackSize());
+			for (int p = 0; p < numPartial && remaining > 0; ++p) {
+				ItemStack stack = inventory.getStackInSlot(partial[p]);
+				if (stack.isItemEqual(toAdd) && ItemStack.areItemStackTagsEqual(stack, toAdd) && inventory.isItemValidForSlot(partial[p], toAdd)) {
+					int moved = Math.min(remaining, max - stack.stackSize);
+					stack.stackSize += moved;
+					remaining -= moved;
+					if (stack.stackSize >= max) {
+						partial[p--] = partial[--numPartial];
+					}
+				}
+			}
+			// free slots the stack can't go in are moved to the front, before 'skipped', and left for later stacks
+			int skipped = 0;
+			while (remaining > 0 && skipped < numFree) {
+				int f = skipped + (rand == null ? 0 : rand.nextInt(numFree - skipped));
+				int slot = free[f];
+				if (!inventory.isItemValidForSlot(slot, toAdd)) {
+					free[f] = free[skipped];
+					free[skipped++] = slot;
+					continue;
+				}
+				// keep the remaining free slots in order when not picking at random
+				if (rand == null) {
+					System.arraycopy(free, f + 1, free, f, --numFree - f);
+				} else {
+					free[f] = free[--numFree];
+				}
+				ItemStack stack = toAdd.copy();
+				stack.stackSize = Math.min(remaining, max);
+				remaining -= stack.stackSize;
+				inventory.setInventorySlotContents(slot, stack);
+				if (stack.stackSize < max && stack.isStackable()) {
+					partial[numPartial++] = slot;
+				}
+			}
+			leftOver += remaining;
+		}
+		inventory.onInventoryChanged();
+		return leftOver;
+	}
+
+	private static final class Entry
+	{
+		private final ItemStack item;
+		private final int min, max, weight;
+
+		private Entry(ItemStack item, int min, int max, int weight) {
+			this.item = item;
+			this.min = min;
+			this.max = max;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Collects the entries for a LootTable, which is compiled when build() is called
+	 */
+	public static class Builder
+	{
+		private final List<Entry> entries = new ArrayList<Entry>();
+
+		/**
+		 * Adds an item with a stack size from min to max (inclusive) and the given weight;
+		 * an entry with weight 10 is picked twice as often as one with weight 5
+		 */
+		public Builder add(ItemStack item, int min, int max, int weight) {
+			if (weight <= 0 || min < 1 || max < min) {
+				throw new IllegalArgumentException("Invalid loot entry: weight " + weight + ", count " + min + "-" + max);
+			}
+			entries.add(new Entry(item.copy(), min, max, weight));
+			return this;
+		}
+
+		public LootTable build() {
+			return new LootTable(entries);
+		}
+	}
+}
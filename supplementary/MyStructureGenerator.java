@@ -0,0 +1,172 @@
+package coolalias.structuregen;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+import net.minecraft.inventory.IInventory;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.World;
+
+/**
+ * The finished StructureGenerator from StructureArrayTutorialPart2
+ */
+public class MyStructureGenerator extends StructureGeneratorBase
+{
+	/** All structures currently available, by id or by name */
+	public static final StructureRegistry structures = new StructureRegistry();
+
+	/** Handlers for every custom hook id used in our block arrays */
+	public static final CustomHookRegistry hooks = new CustomHookRegistry();
+
+	public MyStructureGenerator() {}
+
+	public MyStructureGenerator(Entity entity, int[][][][] blocks) {
+		super(entity, blocks);
+	}
+
+	public MyStructureGenerator(Entity entity, int[][][][] blocks, int structureFacing) {
+		super(entity, blocks, structureFacing);
+	}
+
+	public MyStructureGenerator(Entity entity, int[][][][] blocks, int structureFacing, int offX, int offY, int offZ) {
+		super(entity, blocks, structureFacing, offX, offY, offZ);
+	}
+
+	/**
+	 * Registers a structure stored in a '.struct' file (see StructureFile); the file is not
+	 * read until the structure is first requested from the registry
+	 */
+	public static int registerStructureFile(String name, File file) {
+		return structures.register(name, file);
+	}
+
+	/**
+	 * Registers every '.struct' file in the directory using the file name without its
+	 * extension as the structure name, e.g. 'config/structures/tutorial_home.struct'
+	 */
+	public static void registerStructureFiles(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String fileName = file.getName();
+			if (file.isFile() && fileName.endsWith(StructureFile.EXTENSION)) {
+				registerStructureFile(fileName.substring(0, fileName.length() - StructureFile.EXTENSION.length()), file);
+			}
+		}
+	}
+
+	@Override
+	public int getRealBlockID(int fakeID, int customData1) {
+		return hooks.getRealBlockID(fakeID, customData1);
+	}
+
+	@Override
+	public void onCustomBlockAdded(World world, int x, int y, int z, int fakeID, int customData1, int customData2) {
+		hooks.onCustomBlockAdded(this, world, x, y, z, fakeID, customData1, customData2);
+	}
+
+	/**
+	 * Hangs an item frame in place of CustomHooks.ITEM_FRAME, facing away from the wall the
+	 * placeholder torch is on; customData1 is the item id to put in it (0 for none) and
+	 * customData2 the item's rotation
+	 */
+	public static class ItemFrameHook implements ICustomHook
+	{
+		@Override
+		public int getRealBlockID(int customData1) {
+			return Block.torchWood.blockID;
+		}
+
+		@Override
+		public void onHookPlaced(StructureGeneratorBase generator, World world, int x, int y, int z, int customData1, int customData2) {
+			HangingEntities hanging = HangingEntities.current();
+			int direction = hanging.setHangingEntity(world, new ItemStack(Item.itemFrame), x, y, z);
+			if (direction != -1 && customData1 > 0) {
+				hanging.setItemFrameStack(world, new ItemStack(customData1, 1, 0), x, y, z, direction, customData2);
+			}
+		}
+	}
+
+	/**
+	 * Fills chests placed with CustomHooks.CUSTOM_CHEST; customData1 is either one of the
+	 * CHEST_HOUSE subtypes, a subtype with a registered LootTable (customData2 is then the
+	 * number of rolls) or an item id, with customData2 as the stack size
+	 */
+	public static class ChestHook implements ICustomHook
+	{
+		private static final ItemStack[] HOUSE_1_ITEMS = {
+			new ItemStack(Item.potion,1,8206), new ItemStack(Item.potion,1,8270),
+			new ItemStack(Item.potion,1,8193), new ItemStack(Item.potion,1,16385)
+		};
+
+		private static final ItemStack[] HOUSE_2_ITEMS = {
+			new ItemStack(Item.swordIron,1,128), new ItemStack(Item.plateIron,1,128), new ItemStack(Item.helmetIron,1,72),
+			new ItemStack(Item.legsIron,1,128), new ItemStack(Item.bootsIron,1,72)
+		};
+
+		/** Loot tables by customData1 subtype */
+		private final Map<Integer, LootTable> lootTables = new HashMap<Integer, LootTable>();
+
+		/** Chests placed with this subtype as customData1 are filled from the table, rolling it customData2 times */
+		public ChestHook registerLootTable(int subtype, LootTable table) {
+			lootTables.put(subtype, table);
+			return this;
+		}
+
+		@Override
+		public int getRealBlockID(int customData1) {
+			return Block.chest.blockID;
+		}
+
+		@Override
+		public void onHookPlaced(StructureGeneratorBase generator, World world, int x, int y, int z, int customData1, int customData2) {
+			TileEntity te = world.getBlockTileEntity(x, y, z);
+			if (!(te instanceof IInventory)) {
+				return;
+			}
+			IInventory inventory = (IInventory) te;
+			LootTable table = lootTables.get(customData1);
+			if (table != null) {
+				LootTable.fillInventory(inventory, table, customData2, world.rand);
+			}
+			else if (customData1 == CustomHooks.CHEST_HOUSE_1) {
+				LootTable.addToInventory(inventory, HOUSE_1_ITEMS, null);
+			}
+			else if (customData1 == CustomHooks.CHEST_HOUSE_2) {
+				LootTable.addToInventory(inventory, HOUSE_2_ITEMS, null);
+			}
+			else {
+				LootTable.addToInventory(inventory, new ItemStack[] {new ItemStack(customData1, customData2, 0)}, null);
+			}
+			StructureMetrics.current().addInventoryFilled();
+		}
+	}
+
+	/** This is where you add your custom hooks and structures to the registries we made at the top */
+	static {
+		hooks.register(CustomHooks.CUSTOM_CHEST, new ChestHook()
+			.registerLootTable(CustomHooks.CHEST_LOOT_COMMON, new LootTable.Builder()
+				.add(new ItemStack(Item.bread), 1, 4, 10)
+				.add(new ItemStack(Item.ingotIron), 1, 3, 5)
+				.add(new ItemStack(Item.ingotGold), 1, 2, 3)
+				.add(new ItemStack(Item.diamond), 1, 1, 1)
+				.build()));
+		hooks.register(CustomHooks.ITEM_FRAME, new ItemFrameHook());
+
+		// shares identical layers, rows and blocks between all of the structures below
+		StructureInterner interner = new StructureInterner();
+		Structure structure;
+
+		structure = new Structure("Tutorial Home");
+		structure.addBlockArray(StructureArrayTutorial.blockArrayTutorial);
+		structure.setFacing(StructureGeneratorBase.WEST);
+		structures.register(interner.intern(structure));
+	}
+}
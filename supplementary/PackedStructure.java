@@ -0,0 +1,431 @@
+package coolalias.structuregen;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, read-only copy of a Structure's block arrays.
+ *
+ * Instead of one int[] per block, each distinct {blockID, metadata, customData1, customData2}
+ * tuple is stored once in a palette, and every position in the structure stores only the
+ * index of its tuple, packed into as few bits as the palette size allows. A structure with
+ * 12 different block types needs 4 bits per block rather than a 16+ byte array header.
+ *
+ * Positions are addressed in the same order as the block arrays: y (bottom to top), then x,
+ * then z. Multiple block arrays added to a Structure are stacked bottom-up, just like they
+ * are when the structure is generated.
+ *
+ * Build one once, e.g. in your StructureGenerator's static initializer, and keep it around:
+ *
+ * PackedStructure packed = PackedStructure.fromStructure(structure);
+ * for (int y = 0; y < packed.getHeight(); ++y) {
+ *     for (int x = 0; x < packed.getWidthX(); ++x) {
+ *         for (int z = 0; z < packed.getWidthZ(); ++z) {
+ *             int index = packed.getPaletteIndex(x, y, z);
+ *             if (index != PackedStructure.EMPTY) {
+ *                 int[] block = packed.getTuple(index);
+ *                 // block[0] is the id, block[1] the metadata, etc.
+ *             }
+ *         }
+ *     }
+ * }
+ */
+public class PackedStructure
+{
+	/** Palette index of positions that were left empty in the block array, i.e. '{}' */
+	public static final int EMPTY = 0;
+
+	/** Number of ints stored in each palette entry: blockID, metadata, customData1, customData2 */
+	public static final int TUPLE_SIZE = 4;
+
+	/** Name of the Structure this was built from, or null if built from a single array */
+	public final String name;
+
+	/** Default facing of the structure, as set by Structure.setFacing */
+	private final int facing;
+
+	/** Dimensions of the structure; shorter columns or layers are padded with EMPTY */
+	private final int widthX, height, widthZ;
+
+	/** Palette of distinct tuples; palette[EMPTY] is a placeholder that is never placed */
+	private final int[][] palette;
+
+	/** Number of bits used to store a single palette index */
+	private final int bitsPerEntry;
+
+	/** Number of palette indices stored in each long; entries never straddle two longs */
+	private final int entriesPerLong;
+
+	/** Mask used to extract a single palette index */
+	private final long entryMask;
+
+	/**
+	 * The packed palette indices for every position in the structure; either wraps a long[]
+	 * on the heap or is a view of a memory-mapped structure file (see StructureFile).
+	 * Only absolute get(int) is ever used, so the buffer may be shared between threads.
+	 */
+	private final LongBuffer data;
+
+	/** Positions an entity can stand at; worked out on first request */
+	private volatile StandableMask standableMask;
+
+	/** Bit y is set if layer y is the same as layer y - 1; worked out on first request */
+	private volatile BitSet repeatedLayers;
+
+	private PackedStructure(String name, int facing, int widthX, int height, int widthZ, int[][] palette, int[] indices) {
+		this(name, facing, widthX, height, widthZ, palette, packIndices(indices, getBitsRequired(palette.length)));
+	}
+
+	/**
+	 * Creates a packed structure around already packed data, e.g. read from a structure file;
+	 * the data must have been packed using getBitsRequired(palette.length) bits per entry
+	 */
+	PackedStructure(String name, int facing, int widthX, int height, int widthZ, int[][] palette, LongBuffer data) {
+		this.name = name;
+		this.facing = facing;
+		this.widthX = widthX;
+		this.height = height;
+		this.widthZ = widthZ;
+		this.palette = palette;
+		this.bitsPerEntry = getBitsRequired(palette.length);
+		this.entriesPerLong = 64 / bitsPerEntry;
+		this.entryMask = (1L << bitsPerEntry) - 1;
+		this.data = data;
+		if (data.capacity() < getDataLength(widthX * height * widthZ, bitsPerEntry)) {
+			throw new IllegalArgumentException("Packed data for structure " + name + " is too short for its dimensions");
+		}
+	}
+
+	private static LongBuffer packIndices(int[] indices, int bitsPerEntry) {
+		int entriesPerLong = 64 / bitsPerEntry;
+		long mask = (1L << bitsPerEntry) - 1;
+		long[] packed = new long[getDataLength(indices.length, bitsPerEntry)];
+		for (int i = 0; i < indices.length; ++i) {
+			packed[i / entriesPerLong] |= (indices[i] & mask) << ((i % entriesPerLong) * bitsPerEntry);
+		}
+		return LongBuffer.wrap(packed);
+	}
+
+	/** Returns the number of longs needed to pack the given number of entries */
+	static int getDataLength(int entries, int bitsPerEntry) {
+		int entriesPerLong = 64 / bitsPerEntry;
+		return (entries + entriesPerLong - 1) / entriesPerLong;
+	}
+
+	/**
+	 * Converts all of the structure's block arrays, stacked bottom-up, into a single packed structure
+	 */
+	public static PackedStructure fromStructure(Structure structure) {
+		return fromCursor(structure.name, structure.getFacing(), new StackedArrayCursor(structure));
+	}
+
+	/**
+	 * Converts a single block array into a packed structure, using the given default facing
+	 */
+	public static PackedStructure fromBlockArray(int[][][][] blocks, int facing) {
+		return fromCursor(null, facing, new StackedArrayCursor(blocks));
+	}
+
+	/**
+	 * Packs every block the cursor steps through; the cursor is used up afterwards
+	 */
+	public static PackedStructure fromCursor(String name, int facing, BlockCursor cursor) {
+		int widthX = cursor.getWidthX(), height = cursor.getHeight(), widthZ = cursor.getWidthZ();
+		List<int[]> palette = new ArrayList<int[]>();
+		Map<TupleKey, Integer> lookup = new HashMap<TupleKey, Integer>();
+		TupleKey probe = new TupleKey();
+		palette.add(new int[TUPLE_SIZE]); // EMPTY
+
+		int[] indices = new int[widthX * height * widthZ];
+		while (cursor.next()) {
+			probe.set(cursor);
+			Integer index = lookup.get(probe);
+			if (index == null) {
+				index = palette.size();
+				palette.add(probe.tuple.clone());
+				lookup.put(new TupleKey(probe.tuple), index);
+			}
+			indices[(cursor.getY() * widthX + cursor.getX()) * widthZ + cursor.getZ()] = index;
+		}
+
+		return new PackedStructure(name, facing, widthX, height, widthZ, palette.toArray(new int[palette.size()][]), indices);
+	}
+
+	/**
+	 * Returns this structure under another name, sharing all of its data, or this structure
+	 * itself if the name is the same
+	 */
+	PackedStructure withName(String name) {
+		if (name == null ? this.name == null : name.equals(this.name)) {
+			return this;
+		}
+		return new PackedStructure(name, facing, widthX, height, widthZ, palette, data);
+	}
+
+	/**
+	 * Returns a cursor over this structure's non-EMPTY positions
+	 */
+	public BlockCursor cursor() {
+		return new BlockCursor() {
+			private int flatIndex = -1;
+			private int[] tuple;
+
+			@Override
+			public boolean next() {
+				int size = widthX * height * widthZ;
+				while (++flatIndex < size) {
+					int index = getPaletteIndex(flatIndex);
+					if (index != EMPTY) {
+						tuple = palette[index];
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override public int getWidthX() { return widthX; }
+
+			@Override public int getHeight() { return height; }
+
+			@Override public int getWidthZ() { return widthZ; }
+
+			@Override public int getX() { return (flatIndex / widthZ) % widthX; }
+
+			@Override public int getY() { return flatIndex / (widthX * widthZ); }
+
+			@Override public int getZ() { return flatIndex % widthZ; }
+
+			@Override public int getBlockID() { return tuple[0]; }
+
+			@Override public int getMetadata() { return tuple[1]; }
+
+			@Override public int getCustomData1() { return tuple[2]; }
+
+			@Override public int getCustomData2() { return tuple[3]; }
+		};
+	}
+
+	/**
+	 * Returns a copy of this structure rotated clockwise the given number of times, with both
+	 * the positions and the metadata already rotated, so it can be placed without rotating.
+	 * Place its origin at getRotatedOriginX/Z to match placing this structure rotated.
+	 * @param generator Used to find the real block id of custom hooks when rotating metadata
+	 */
+	public PackedStructure rotate(int rotations, StructureGeneratorBase generator) {
+		rotations &= 3;
+		int[][] rotatedPalette = new int[palette.length][];
+		rotatedPalette[EMPTY] = palette[EMPTY];
+		for (int i = 1; i < palette.length; ++i) {
+			int[] tuple = palette[i].clone();
+			int realID = (tuple[0] >= StructurePlacer.FIRST_HOOK_ID ? generator.getRealBlockID(tuple[0], tuple[2]) : tuple[0]);
+			tuple[1] = BlockRotation.rotateMetadata(realID, tuple[1], rotations);
+			rotatedPalette[i] = tuple;
+		}
+		boolean swap = (rotations & 1) == 1;
+		int newWidthX = (swap ? widthZ : widthX), newWidthZ = (swap ? widthX : widthZ);
+		int minX = getRotatedOriginX(rotations), minZ = getRotatedOriginZ(rotations);
+		int[] indices = new int[widthX * height * widthZ];
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < widthX; ++x) {
+				for (int z = 0; z < widthZ; ++z) {
+					int i = BlockRotation.rotateX(x, z, rotations) - minX;
+					int k = BlockRotation.rotateZ(x, z, rotations) - minZ;
+					indices[(y * newWidthX + i) * newWidthZ + k] = getPaletteIndex(x, y, z);
+				}
+			}
+		}
+		return new PackedStructure(name, (facing + rotations) & 3, newWidthX, height, newWidthZ, rotatedPalette, indices);
+	}
+
+	/**
+	 * Returns the x offset, relative to the position this structure would be placed at, where
+	 * the origin of the copy returned by rotate(rotations) must be placed
+	 */
+	public final int getRotatedOriginX(int rotations) {
+		return Math.min(0, BlockRotation.rotateX(widthX - 1, widthZ - 1, rotations));
+	}
+
+	/** As getRotatedOriginX, but for the z offset */
+	public final int getRotatedOriginZ(int rotations) {
+		return Math.min(0, BlockRotation.rotateZ(widthX - 1, widthZ - 1, rotations));
+	}
+
+	/** Returns the number of bits needed to store any index into a palette of the given size */
+	static int getBitsRequired(int paletteSize) {
+		int bits = 1;
+		while ((1 << bits) < paletteSize) {
+			++bits;
+		}
+		return bits;
+	}
+
+	public final int getFacing() { return facing; }
+
+	public final int getWidthX() { return widthX; }
+
+	public final int getHeight() { return height; }
+
+	public final int getWidthZ() { return widthZ; }
+
+	/** Returns the number of palette entries, including the EMPTY placeholder */
+	public final int getPaletteSize() { return palette.length; }
+
+	/**
+	 * Returns the palette index stored at the given position within the structure;
+	 * positions outside of the structure's bounds will throw an exception
+	 */
+	public final int getPaletteIndex(int x, int y, int z) {
+		return getPaletteIndex((y * widthX + x) * widthZ + z);
+	}
+
+	/**
+	 * Returns the palette index stored at the given flat index, where
+	 * flatIndex = (y * getWidthX() + x) * getWidthZ() + z
+	 */
+	public final int getPaletteIndex(int flatIndex) {
+		return (int)((data.get(flatIndex / entriesPerLong) >>> ((flatIndex % entriesPerLong) * bitsPerEntry)) & entryMask);
+	}
+
+	/**
+	 * Returns the {blockID, metadata, customData1, customData2} tuple for the palette index.
+	 * The returned array is shared by every position using it, so do NOT modify it!
+	 */
+	public final int[] getTuple(int paletteIndex) {
+		return palette[paletteIndex];
+	}
+
+	/** Returns true if the block array had no entry at all at this position */
+	public final boolean isEmpty(int x, int y, int z) {
+		return getPaletteIndex(x, y, z) == EMPTY;
+	}
+
+	public final int getBlockID(int x, int y, int z) {
+		return palette[getPaletteIndex(x, y, z)][0];
+	}
+
+	public final int getMetadata(int x, int y, int z) {
+		return palette[getPaletteIndex(x, y, z)][1];
+	}
+
+	/**
+	 * Rough number of heap bytes used by the packed data and palette, for comparison with
+	 * the original arrays; memory-mapped data lives outside of the heap and isn't counted
+	 */
+	public final long getMemorySize() {
+		long paletteSize = (16L + 4 * TUPLE_SIZE) * palette.length;
+		return (data.isDirect() ? paletteSize : paletteSize + 8L * data.capacity());
+	}
+
+	/**
+	 * Returns the mask of positions where an entity can stand, building it the first time;
+	 * the generator is used to find the real block id of custom hooks
+	 */
+	public final StandableMask getStandableMask(StructureGeneratorBase generator) {
+		StandableMask mask = standableMask;
+		if (mask == null) {
+			mask = StandableMask.build(this, generator);
+			standableMask = mask;
+		}
+		return mask;
+	}
+
+	/**
+	 * Returns true if layer y holds exactly the same blocks as the layer below it, e.g. one of
+	 * several copy-pasted wall layers, so the planner can reuse the layer below's work. All
+	 * layers are compared the first time this is called.
+	 */
+	public final boolean isRepeatedLayer(int y) {
+		BitSet repeated = repeatedLayers;
+		if (repeated == null) {
+			repeated = new BitSet(height);
+			int layerSize = widthX * widthZ;
+			for (int layer = 1; layer < height; ++layer) {
+				int start = layer * layerSize, n = 0;
+				while (n < layerSize && getPaletteIndex(start + n) == getPaletteIndex(start - layerSize + n)) {
+					++n;
+				}
+				repeated.set(layer, n == layerSize);
+			}
+			repeatedLayers = repeated;
+		}
+		return repeated.get(y);
+	}
+
+	/** Returns the packed data, for writing this structure to a file */
+	final LongBuffer getPackedData() {
+		return data.duplicate();
+	}
+
+	/**
+	 * Expands this structure back into a freshly allocated block array, e.g. to hand it to
+	 * StructureGeneratorBase.setBlockArray; EMPTY positions become '{}' again
+	 */
+	public final int[][][][] toBlockArray() {
+		int[][][][] blocks = new int[height][widthX][widthZ][];
+		int[] empty = new int[0];
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < widthX; ++x) {
+				for (int z = 0; z < widthZ; ++z) {
+					int index = getPaletteIndex(x, y, z);
+					blocks[y][x][z] = (index == EMPTY ? empty : palette[index].clone());
+				}
+			}
+		}
+		return blocks;
+	}
+
+	/**
+	 * Mutable tuple used as a HashMap key so that palette lookups during conversion
+	 * don't need to allocate a new key for blocks already in the palette
+	 */
+	private static final class TupleKey
+	{
+		private final int[] tuple = new int[TUPLE_SIZE];
+		private int hash;
+
+		private TupleKey() {}
+
+		private TupleKey(int[] tuple) {
+			set(tuple);
+		}
+
+		/** Copies the block array entry into this key, padding missing values with 0 */
+		private void set(int[] block) {
+			for (int i = 0; i < TUPLE_SIZE; ++i) {
+				tuple[i] = (i < block.length ? block[i] : 0);
+			}
+			rehash();
+		}
+
+		/** Copies the cursor's current block into this key */
+		private void set(BlockCursor cursor) {
+			tuple[0] = cursor.getBlockID();
+			tuple[1] = cursor.getMetadata();
+			tuple[2] = cursor.getCustomData1();
+			tuple[3] = cursor.getCustomData2();
+			rehash();
+		}
+
+		private void rehash() {
+			hash = 1;
+			for (int i = 0; i < TUPLE_SIZE; ++i) {
+				hash = 31 * hash + tuple[i];
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof TupleKey && Arrays.equals(tuple, ((TupleKey) obj).tuple);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package coolalias.structuregen;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+
+/**
+ * The parts of world-generated structures that fall in chunks which haven't been populated
+ * yet, keyed by chunk coordinates. There is one instance per world (dimension), stored with
+ * the world's other saved data so slices waiting for a chunk survive a restart.
+ *
+ * Only used from the server thread.
+ */
+public class PendingSlices extends WorldSavedData
+{
+	private static final String NAME = "StructurePendingSlices";
+
+	/** Slices by chunk, oldest chunk first: chunks are kept in the order their first slice was added */
+	private final Map<Long, List<Slice>> slices = new LinkedHashMap<Long, List<Slice>>();
+
+	/** Total number of blocks in all pending slices */
+	private int blockCount;
+
+	public PendingSlices(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns the pending slices for the world, loading them or creating an empty set the
+	 * first time
+	 */
+	public static PendingSlices get(World world) {
+		PendingSlices data = (PendingSlices) world.perWorldStorage.loadData(PendingSlices.class, NAME);
+		if (data == null) {
+			data = new PendingSlices(NAME);
+			world.perWorldStorage.setData(NAME, data);
+		}
+		return data;
+	}
+
+	/** Returns the total number of blocks waiting to be placed */
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/** Returns the number of chunks that have slices waiting for them */
+	public int getChunkCount() {
+		return slices.size();
+	}
+
+	/**
+	 * Adds a single-chunk slice, as returned by PlacementPlan.splitByChunk, of the named
+	 * structure; the name is kept so the slice is recorded to the structure's StructureMetrics
+	 * @param name May be null if the structure has no name
+	 */
+	public void add(String name, PlacementPlan slice) {
+		PlacementPlan.ChunkGroup group = slice.getChunks().get(0);
+		Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(group.chunkX, group.chunkZ));
+		List<Slice> list = slices.get(key);
+		if (list == null) {
+			list = new ArrayList<Slice>(1);
+			slices.put(key, list);
+		}
+		list.add(new Slice(name, slice));
+		blockCount += slice.getBlockCount();
+		markDirty();
+	}
+
+	/**
+	 * Removes and returns all slices waiting for the chunk, in the order they were added,
+	 * or null if there are none
+	 */
+	public List<Slice> remove(int chunkX, int chunkZ) {
+		List<Slice> list = slices.remove(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+		if (list != null) {
+			for (Slice slice : list) {
+				blockCount -= slice.plan.getBlockCount();
+			}
+			markDirty();
+		}
+		return list;
+	}
+
+	/**
+	 * Drops the slices of the chunks waiting longest until no more than maxBlocks blocks are
+	 * pending; those parts of their structures are never placed. Returns the number of blocks
+	 * dropped.
+	 */
+	public int trimTo(int maxBlocks) {
+		int dropped = 0;
+		Iterator<List<Slice>> iterator = slices.values().iterator();
+		while (blockCount > maxBlocks && iterator.hasNext()) {
+			for (Slice slice : iterator.next()) {
+				blockCount -= slice.plan.getBlockCount();
+				dropped += slice.plan.getBlockCount();
+			}
+			iterator.remove();
+		}
+		if (dropped > 0) {
+			markDirty();
+		}
+		return dropped;
+	}
+
+	@Override
+	public void readFromNBT(NBTTagCompound compound) {
+		slices.clear();
+		blockCount = 0;
+		NBTTagList list = compound.getTagList("Slices");
+		for (int i = 0; i < list.tagCount(); ++i) {
+			NBTTagCompound tag = (NBTTagCompound) list.tagAt(i);
+			add(tag.hasKey("Name") ? tag.getString("Name") : null, PlacementPlan.forChunk(tag.getInteger("ChunkX"), tag.getInteger("ChunkZ"),
+					tag.getInteger("Sections"), tag.getIntArray("Positions"), tag.getIntArray("Blocks"), tag.getIntArray("Hooks")));
+		}
+	}
+
+	@Override
+	public void writeToNBT(NBTTagCompound compound) {
+		NBTTagList list = new NBTTagList();
+		for (List<Slice> chunkSlices : slices.values()) {
+			for (Slice pendingSlice : chunkSlices) {
+				PlacementPlan slice = pendingSlice.plan;
+				PlacementPlan.ChunkGroup group = slice.getChunks().get(0);
+				NBTTagCompound tag = new NBTTagCompound();
+				if (pendingSlice.name != null) {
+					tag.setString("Name", pendingSlice.name);
+				}
+				tag.setInteger("ChunkX", group.chunkX);
+				tag.setInteger("ChunkZ", group.chunkZ);
+				tag.setInteger("Sections", group.sectionMask);
+				tag.setIntArray("Positions", group.getPositions());
+				tag.setIntArray("Blocks", group.getBlocks());
+				tag.setIntArray("Hooks", slice.getHooks());
+				list.appendTag(tag);
+			}
+		}
+		compound.setTag("Slices", list);
+	}
+
+	/** A pending slice and the name of the structure it belongs to */
+	public static final class Slice
+	{
+		/** Name of the structure, or null if it has none */
+		public final String name;
+
+		public final PlacementPlan plan;
+
+		private Slice(String name, PlacementPlan plan) {
+			this.name = name;
+			this.plan = plan;
+		}
+	}
+}
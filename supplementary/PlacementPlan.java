@@ -0,0 +1,248 @@
+package coolalias.structuregen;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.world.ChunkCoordIntPair;
+
+/**
+ * Everything needed to place one structure at one position and rotation, worked out ahead
+ * of time: the real block id and rotated metadata of every block, grouped by chunk, plus the
+ * custom hooks to run once all blocks exist.
+ *
+ * A plan is immutable and contains no reference to the World, so it can be built on any
+ * thread with StructurePlanner and then handed to StructurePlacer.apply on the server thread.
+ */
+public final class PlacementPlan
+{
+	/** Flag set in a packed position if the block is on the outer surface of the structure */
+	public static final int SURFACE_FLAG = 1 << 16;
+
+	/** Values stored per hook, see getHookData */
+	private static final int HOOK_SIZE = 8;
+
+	/** Writes grouped by chunk, sorted by chunk x and then chunk z */
+	private final List<ChunkGroup> chunks;
+
+	/** Deferred custom hooks: x, y, z, fakeID, customData1, customData2, blockID, meta for each hook */
+	private final int[] hooks;
+
+	private final int blockCount;
+
+	private PlacementPlan(List<ChunkGroup> chunks, int[] hooks, int blockCount) {
+		this.chunks = chunks;
+		this.hooks = hooks;
+		this.blockCount = blockCount;
+	}
+
+	/** Returns the chunk groups in sorted order; the list can't be modified */
+	public List<ChunkGroup> getChunks() {
+		return chunks;
+	}
+
+	/** Returns the number of deferred custom hooks */
+	public int getHookCount() {
+		return hooks.length / HOOK_SIZE;
+	}
+
+	/**
+	 * Returns the value for the hook: 0 x, 1 y, 2 z, 3 fakeID, 4 customData1, 5 customData2,
+	 * 6 the real block id placed for it and 7 its rotated metadata
+	 */
+	public int getHookData(int hook, int value) {
+		return hooks[hook * HOOK_SIZE + value];
+	}
+
+	/** Returns the total number of blocks to be written */
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Splits the plan into one plan per chunk, in the same order as getChunks(); each slice
+	 * holds that chunk's writes and the hooks positioned inside it, so it can be applied on its
+	 * own once that chunk is available
+	 */
+	public PlacementPlan[] splitByChunk() {
+		PlacementPlan[] slices = new PlacementPlan[chunks.size()];
+		for (int g = 0; g < slices.length; ++g) {
+			ChunkGroup group = chunks.get(g);
+			StructurePlacer.IntList chunkHooks = new StructurePlacer.IntList();
+			for (int n = 0; n < hooks.length; n += HOOK_SIZE) {
+				if ((hooks[n] >> 4) == group.chunkX && (hooks[n + 2] >> 4) == group.chunkZ) {
+					for (int i = 0; i < HOOK_SIZE; ++i) {
+						chunkHooks.add(hooks[n + i]);
+					}
+				}
+			}
+			slices[g] = new PlacementPlan(Collections.singletonList(group), chunkHooks.toArray(), group.size());
+		}
+		return slices;
+	}
+
+	/** Returns the raw hook data, HOOK_SIZE values per hook; used for saving slices */
+	int[] getHooks() {
+		return hooks;
+	}
+
+	/**
+	 * Recreates a single chunk slice from data returned by getHooks and ChunkGroup's
+	 * getPositions and getBlocks
+	 */
+	static PlacementPlan forChunk(int chunkX, int chunkZ, int sectionMask, int[] positions, int[] blocks, int[] hooks) {
+		if (positions.length != blocks.length || hooks.length % HOOK_SIZE != 0) {
+			throw new IllegalArgumentException("Invalid chunk slice data for chunk " + chunkX + "/" + chunkZ);
+		}
+		ChunkGroup group = new ChunkGroup(chunkX, chunkZ, sectionMask, positions, blocks);
+		return new PlacementPlan(Collections.singletonList(group), hooks, positions.length);
+	}
+
+	/**
+	 * The blocks to be written to a single chunk. Each block is stored in two parallel arrays:
+	 * its position within the chunk (y << 8 | x << 4 | z, plus SURFACE_FLAG) and its block
+	 * (blockID << 4 | meta), in the order they were added
+	 */
+	public static final class ChunkGroup implements Comparable<ChunkGroup>
+	{
+		public final int chunkX, chunkZ;
+
+		/** Bit flags of the 16-block tall sections that are written to */
+		public final int sectionMask;
+
+		private final int[] positions, blocks;
+
+		private ChunkGroup(int chunkX, int chunkZ, int sectionMask, int[] positions, int[] blocks) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			this.sectionMask = sectionMask;
+			this.positions = positions;
+			this.blocks = blocks;
+		}
+
+		public int size() {
+			return positions.length;
+		}
+
+		public int getX(int index) {
+			return (chunkX << 4) + ((positions[index] >> 4) & 15);
+		}
+
+		public int getY(int index) {
+			return (positions[index] >> 8) & 255;
+		}
+
+		public int getZ(int index) {
+			return (chunkZ << 4) + (positions[index] & 15);
+		}
+
+		public boolean isSurface(int index) {
+			return (positions[index] & SURFACE_FLAG) != 0;
+		}
+
+		public int getBlockID(int index) {
+			return blocks[index] >> 4;
+		}
+
+		public int getMetadata(int index) {
+			return blocks[index] & 15;
+		}
+
+		int[] getPositions() {
+			return positions;
+		}
+
+		int[] getBlocks() {
+			return blocks;
+		}
+
+		@Override
+		public int compareTo(ChunkGroup other) {
+			return (chunkX != other.chunkX ? (chunkX < other.chunkX ? -1 : 1) : (chunkZ < other.chunkZ ? -1 : chunkZ == other.chunkZ ? 0 : 1));
+		}
+	}
+
+	/**
+	 * Collects writes and hooks for a plan; not thread-safe, so each thread building part of
+	 * a plan uses its own Builder and the results are merged in order afterwards
+	 */
+	static final class Builder
+	{
+		private final Map<Long, GroupBuilder> chunks = new HashMap<Long, GroupBuilder>();
+		private final StructurePlacer.IntList hooks = new StructurePlacer.IntList();
+		private GroupBuilder last;
+		private int blockCount;
+
+		void addBlock(int x, int y, int z, int blockID, int meta, boolean surface) {
+			if (last == null || last.chunkX != (x >> 4) || last.chunkZ != (z >> 4)) {
+				last = getGroup(x >> 4, z >> 4);
+			}
+			last.positions.add((y << 8) | ((x & 15) << 4) | (z & 15) | (surface ? SURFACE_FLAG : 0));
+			last.blocks.add((blockID << 4) | (meta & 15));
+			last.sectionMask |= 1 << (y >> 4);
+			++blockCount;
+		}
+
+		void addHook(int x, int y, int z, int fakeID, int customData1, int customData2, int blockID, int meta) {
+			hooks.add(x, y);
+			hooks.add(z, fakeID);
+			hooks.add(customData1, customData2);
+			hooks.add(blockID, meta);
+		}
+
+		/** Appends everything from the other builder after this builder's writes and hooks */
+		void merge(Builder other) {
+			for (GroupBuilder group : other.chunks.values()) {
+				GroupBuilder mine = getGroup(group.chunkX, group.chunkZ);
+				mine.positions.addAll(group.positions);
+				mine.blocks.addAll(group.blocks);
+				mine.sectionMask |= group.sectionMask;
+			}
+			hooks.addAll(other.hooks);
+			blockCount += other.blockCount;
+		}
+
+		/** Empties the builder so it can be reused; plans already built are not affected */
+		void clear() {
+			chunks.clear();
+			hooks.clear();
+			last = null;
+			blockCount = 0;
+		}
+
+		PlacementPlan build() {
+			ChunkGroup[] groups = new ChunkGroup[chunks.size()];
+			int n = 0;
+			for (GroupBuilder group : chunks.values()) {
+				groups[n++] = new ChunkGroup(group.chunkX, group.chunkZ, group.sectionMask, group.positions.toArray(), group.blocks.toArray());
+			}
+			Arrays.sort(groups);
+			return new PlacementPlan(Collections.unmodifiableList(Arrays.asList(groups)), hooks.toArray(), blockCount);
+		}
+
+		private GroupBuilder getGroup(int chunkX, int chunkZ) {
+			Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+			GroupBuilder group = chunks.get(key);
+			if (group == null) {
+				group = new GroupBuilder(chunkX, chunkZ);
+				chunks.put(key, group);
+			}
+			return group;
+		}
+	}
+
+	private static final class GroupBuilder
+	{
+		private final int chunkX, chunkZ;
+		private final StructurePlacer.IntList positions = new StructurePlacer.IntList();
+		private final StructurePlacer.IntList blocks = new StructurePlacer.IntList();
+		private int sectionMask;
+
+		private GroupBuilder(int chunkX, int chunkZ) {
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package coolalias.structuregen;
+
+/**
+ * Counts of what happened while placing a structure, as returned by StructurePlacer
+ */
+public class PlacementStats
+{
+	/** Number of blocks written to the world */
+	int written;
+
+	/** Number of blocks not written because the world already held the same id and metadata */
+	int skipped;
+
+	/** Number of custom hooks whose onCustomBlockAdded was run */
+	int hooks;
+
+	/** Nanoseconds spent in each StructureMetrics.Phase, by ordinal */
+	final long[] times = new long[StructureMetrics.Phase.values().length];
+
+	public final int getBlocksWritten() {
+		return written;
+	}
+
+	public final int getBlocksSkipped() {
+		return skipped;
+	}
+
+	public final int getHooksRun() {
+		return hooks;
+	}
+
+	/** Returns the time spent in the phase, in nanoseconds */
+	public final long getTime(StructureMetrics.Phase phase) {
+		return times[phase.ordinal()];
+	}
+
+	final void addTime(StructureMetrics.Phase phase, long nanos) {
+		times[phase.ordinal()] += nanos;
+	}
+
+	/** Adds the other stats to these, e.g. when a structure is placed in several batches */
+	void add(PlacementStats other) {
+		written += other.written;
+		skipped += other.skipped;
+		hooks += other.hooks;
+		for (int n = 0; n < times.length; ++n) {
+			times[n] += other.times[n];
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PlacementStats[written=" + written + ", skipped=" + skipped + ", hooks=" + hooks + "]";
+	}
+}
@@ -0,0 +1,124 @@
+package coolalias.structuregen;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps copies of structures that have already been rotated, in both positions and metadata,
+ * so that generating the same structure in the same orientation again is a straight copy.
+ *
+ * Rotated copies are built the first time each orientation is requested. Once the copies use
+ * more than the configured amount of memory, those that were used least recently are dropped
+ * and simply rebuilt if needed again.
+ *
+ * RotatedStructureCache.Variant variant = cache.get(packed, rotations);
+ * placer.place(world, variant.structure, x + variant.offsetX, y, z + variant.offsetZ, 0);
+ */
+public class RotatedStructureCache
+{
+	/** Generator used to find the real block ids of custom hooks when rotating metadata */
+	private final StructureGeneratorBase generator;
+
+	/** Maximum number of bytes, as estimated by PackedStructure.getMemorySize, held by the cache */
+	private long maxMemory;
+
+	private long usedMemory;
+
+	/** Rotated copies in least- to most-recently used order */
+	private final LinkedHashMap<Key, Variant> variants = new LinkedHashMap<Key, Variant>(16, 0.75F, true);
+
+	public RotatedStructureCache(StructureGeneratorBase generator, long maxMemory) {
+		this.generator = generator;
+		this.maxMemory = maxMemory;
+	}
+
+	/** Changes the memory cap, dropping rotated copies right away if it is now exceeded */
+	public synchronized void setMaxMemory(long maxMemory) {
+		this.maxMemory = maxMemory;
+		evict();
+	}
+
+	public synchronized long getUsedMemory() {
+		return usedMemory;
+	}
+
+	/**
+	 * Returns the structure rotated clockwise the given number of times, building and caching
+	 * the rotated copy if needed; a rotation of 0 always returns the structure itself
+	 */
+	public synchronized Variant get(PackedStructure structure, int rotations) {
+		rotations &= 3;
+		if (rotations == 0) {
+			return new Variant(structure, 0, 0);
+		}
+		Key key = new Key(structure, rotations);
+		Variant variant = variants.get(key);
+		if (variant == null) {
+			variant = new Variant(structure.rotate(rotations, generator), structure.getRotatedOriginX(rotations), structure.getRotatedOriginZ(rotations));
+			variants.put(key, variant);
+			usedMemory += variant.structure.getMemorySize();
+			evict();
+		}
+		return variant;
+	}
+
+	/** Drops every cached copy of the structure, e.g. after it was reloaded */
+	public synchronized void invalidate(PackedStructure structure) {
+		Iterator<Map.Entry<Key, Variant>> iterator = variants.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Variant> entry = iterator.next();
+			if (entry.getKey().structure == structure) {
+				usedMemory -= entry.getValue().structure.getMemorySize();
+				iterator.remove();
+			}
+		}
+	}
+
+	/** Drops least recently used copies until the cache fits within its memory cap */
+	private void evict() {
+		Iterator<Variant> iterator = variants.values().iterator();
+		while (usedMemory > maxMemory && iterator.hasNext()) {
+			usedMemory -= iterator.next().structure.getMemorySize();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * A rotated copy of a structure, along with the offset from the original placement position
+	 * at which its origin has to be placed
+	 */
+	public static final class Variant
+	{
+		public final PackedStructure structure;
+		public final int offsetX, offsetZ;
+
+		private Variant(PackedStructure structure, int offsetX, int offsetZ) {
+			this.structure = structure;
+			this.offsetX = offsetX;
+			this.offsetZ = offsetZ;
+		}
+	}
+
+	/** Identifies a structure by instance rather than by contents, plus the rotation */
+	private static final class Key
+	{
+		private final PackedStructure structure;
+		private final int rotations;
+
+		private Key(PackedStructure structure, int rotations) {
+			this.structure = structure;
+			this.rotations = rotations;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(structure) * 4 + rotations;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).structure == structure && ((Key) obj).rotations == rotations;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package coolalias.structuregen;
+
+/**
+ * A copy of a structure that stores each z column (all blocks with the same x and y) as runs
+ * of identical tuples, so a column of 20 air blocks is a single run instead of 20 entries.
+ * Hollow buildings, ruins and anything else that is mostly '{0}' or '{}' take a fraction of
+ * the memory of even a PackedStructure.
+ *
+ * With preserveTerrain set, runs of air are not placed at all: whatever terrain, water or
+ * caves were there stay as they are, and the number of world writes drops to the number of
+ * solid blocks. Without it, air is placed as usual to clear out the interior.
+ *
+ * RunLengthStructure ruin = RunLengthStructure.fromStructure(structure).withPreserveTerrain(true);
+ * placer.place(world, ruin, x, y, z, rotations);
+ */
+public class RunLengthStructure
+{
+	/** Bits of a run used for its length; the palette index is stored above them */
+	private static final int LENGTH_BITS = 16, LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+
+	/** Name of the structure this was built from, or null */
+	public final String name;
+
+	private final int facing, widthX, height, widthZ;
+
+	/** Palette shared with the PackedStructure this was built from; palette[EMPTY] is never placed */
+	private final int[][] palette;
+
+	/**
+	 * Offset of the first run of each column, indexed by y * widthX + x, with one extra value
+	 * at the end so the runs of any column end where the next column's start
+	 */
+	private final int[] columnStart;
+
+	/** All runs, column by column from z = 0: paletteIndex << LENGTH_BITS | length */
+	private final int[] runs;
+
+	private final boolean preserveTerrain;
+
+	private RunLengthStructure(String name, int facing, int widthX, int height, int widthZ, int[][] palette,
+			int[] columnStart, int[] runs, boolean preserveTerrain) {
+		this.name = name;
+		this.facing = facing;
+		this.widthX = widthX;
+		this.height = height;
+		this.widthZ = widthZ;
+		this.palette = palette;
+		this.columnStart = columnStart;
+		this.runs = runs;
+		this.preserveTerrain = preserveTerrain;
+	}
+
+	/**
+	 * Converts all of the structure's block arrays, stacked bottom-up, into runs
+	 */
+	public static RunLengthStructure fromStructure(Structure structure) {
+		return fromPacked(PackedStructure.fromStructure(structure));
+	}
+
+	/**
+	 * Converts a packed structure into runs; the palette is shared, not copied
+	 */
+	public static RunLengthStructure fromPacked(PackedStructure packed) {
+		int widthX = packed.getWidthX(), height = packed.getHeight(), widthZ = packed.getWidthZ();
+		if (widthZ > LENGTH_MASK || packed.getPaletteSize() > (1 << (32 - LENGTH_BITS))) {
+			throw new IllegalArgumentException("Structure " + packed.name + " is too long or has too many block types to run-length encode");
+		}
+		int[] columnStart = new int[widthX * height + 1];
+		StructurePlacer.IntList runs = new StructurePlacer.IntList();
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < widthX; ++x) {
+				columnStart[y * widthX + x] = runs.size();
+				int z = 0;
+				while (z < widthZ) {
+					int index = packed.getPaletteIndex(x, y, z);
+					int length = 1;
+					while (z + length < widthZ && packed.getPaletteIndex(x, y, z + length) == index) {
+						++length;
+					}
+					runs.add((index << LENGTH_BITS) | length);
+					z += length;
+				}
+			}
+		}
+		columnStart[widthX * height] = runs.size();
+		int[][] palette = new int[packed.getPaletteSize()][];
+		for (int i = 0; i < palette.length; ++i) {
+			palette[i] = packed.getTuple(i);
+		}
+		return new RunLengthStructure(packed.name, packed.getFacing(), widthX, height, widthZ, palette, columnStart, runs.toArray(), false);
+	}
+
+	/**
+	 * Returns a copy, sharing all of its data with this one, that leaves existing terrain
+	 * alone wherever the structure has air if preserveTerrain is true
+	 */
+	public RunLengthStructure withPreserveTerrain(boolean preserveTerrain) {
+		if (preserveTerrain == this.preserveTerrain) {
+			return this;
+		}
+		return new RunLengthStructure(name, facing, widthX, height, widthZ, palette, columnStart, runs, preserveTerrain);
+	}
+
+	public final boolean getPreserveTerrain() { return preserveTerrain; }
+
+	public final int getFacing() { return facing; }
+
+	public final int getWidthX() { return widthX; }
+
+	public final int getHeight() { return height; }
+
+	public final int getWidthZ() { return widthZ; }
+
+	/** Returns the index of the first run of the column; its last run is at getColumnEnd - 1 */
+	public final int getColumnStart(int x, int y) {
+		return columnStart[y * widthX + x];
+	}
+
+	/** Returns the index just past the last run of the column */
+	public final int getColumnEnd(int x, int y) {
+		return columnStart[y * widthX + x + 1];
+	}
+
+	/** Returns the palette index of every position in the run */
+	public final int getRunPaletteIndex(int run) {
+		return runs[run] >>> LENGTH_BITS;
+	}
+
+	/** Returns the number of positions, along z, covered by the run */
+	public final int getRunLength(int run) {
+		return runs[run] & LENGTH_MASK;
+	}
+
+	/** Returns the total number of runs in the structure */
+	public final int getRunCount() {
+		return runs.length;
+	}
+
+	/**
+	 * Returns true if the run should not be placed: it was left empty ('{}') in the block
+	 * array, or it is air and terrain is being preserved
+	 */
+	public final boolean isSkipped(int run) {
+		int index = getRunPaletteIndex(run);
+		return index == PackedStructure.EMPTY || (preserveTerrain && palette[index][0] == 0);
+	}
+
+	/**
+	 * Returns the {blockID, metadata, customData1, customData2} tuple for the palette index.
+	 * The returned array is shared by every position using it, so do NOT modify it!
+	 */
+	public final int[] getTuple(int paletteIndex) {
+		return palette[paletteIndex];
+	}
+
+	/**
+	 * Returns a cursor over every position that is placed, i.e. all runs that aren't skipped
+	 */
+	public BlockCursor cursor() {
+		return new BlockCursor() {
+			/** Current column (y * widthX + x), its position and the current run */
+			private int column, x, y, run = -1;
+
+			/** Current z, where the current run ends and where the next run starts */
+			private int z = -1, end, nextZ;
+
+			private int[] tuple;
+
+			@Override
+			public boolean next() {
+				if (++z < end) {
+					return true;
+				}
+				while (++run < runs.length) {
+					if (run == columnStart[column + 1]) {
+						while (run == columnStart[column + 1]) {
+							++column;
+						}
+						x = column % widthX;
+						y = column / widthX;
+						nextZ = 0;
+					}
+					z = nextZ;
+					end = nextZ = z + getRunLength(run);
+					if (!isSkipped(run)) {
+						tuple = palette[getRunPaletteIndex(run)];
+						return true;
+					}
+				}
+				z = end;
+				return false;
+			}
+
+			@Override public int getWidthX() { return widthX; }
+
+			@Override public int getHeight() { return height; }
+
+			@Override public int getWidthZ() { return widthZ; }
+
+			@Override public int getX() { return x; }
+
+			@Override public int getY() { return y; }
+
+			@Override public int getZ() { return z; }
+
+			@Override public int getBlockID() { return tuple[0]; }
+
+			@Override public int getMetadata() { return tuple[1]; }
+
+			@Override public int getCustomData1() { return tuple[2]; }
+
+			@Override public int getCustomData2() { return tuple[3]; }
+		};
+	}
+
+	/** Returns the palette index at the given position, searching the column's runs */
+	public final int getPaletteIndex(int x, int y, int z) {
+		int end = getColumnEnd(x, y);
+		for (int run = getColumnStart(x, y); run < end; ++run) {
+			z -= getRunLength(run);
+			if (z < 0) {
+				return getRunPaletteIndex(run);
+			}
+		}
+		throw new IndexOutOfBoundsException("Position " + x + "/" + y + "/" + z + " is outside of structure " + name);
+	}
+
+	/**
+	 * Rough number of heap bytes used by the runs, column offsets and palette
+	 */
+	public final long getMemorySize() {
+		return (16L + 4 * PackedStructure.TUPLE_SIZE) * palette.length + 4L * (columnStart.length + runs.length);
+	}
+}
@@ -0,0 +1,255 @@
+package coolalias.structuregen;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.ForgeSubscribe;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+
+/**
+ * Finds flat ground for a structure without querying the world block by block.
+ *
+ * Whenever a chunk loads, its height map is summarized into 4x4 block cells, storing the
+ * minimum, maximum and mean ground height of each cell in 48 bytes per chunk. To find a site,
+ * the cells around the search area are laid out in a grid and turned into summed-area tables,
+ * so the flatness of every possible footprint is worked out with a few additions each,
+ * however large the footprint is. Only chunks that have been loaded at some point are
+ * considered, and no chunk is ever loaded by a search.
+ *
+ * Register it on the event bus in your mod's init and keep a reference to search with:
+ *
+ * SiteFinder siteFinder = new SiteFinder();
+ * MinecraftForge.EVENT_BUS.register(siteFinder);
+ * ...
+ * SiteFinder.Site site = siteFinder.findSite(world, structure, rotations, x, z, 64);
+ * if (site != null) { placer.place(world, structure, site.x, site.y, site.z, rotations); }
+ *
+ * Only use a SiteFinder from the server thread.
+ */
+public class SiteFinder
+{
+	/** Width of a cell in blocks is 1 << CELL_SHIFT; CELLS is the number of cells along each side of a chunk */
+	private static final int CELL_SHIFT = 2, CELL_SIZE = 1 << CELL_SHIFT, CELLS = 16 / CELL_SIZE;
+
+	/** Bytes per chunk summary: min, max and mean for each cell */
+	private static final int SUMMARY_SIZE = CELLS * CELLS * 3;
+
+	/** Chunk summaries for each world, keyed by chunk coordinates */
+	private final Map<World, Map<Long, byte[]>> summaries = new WeakHashMap<World, Map<Long, byte[]>>();
+
+	/** Maximum number of chunks remembered per world; the least recently loaded are dropped first */
+	private final int maxChunks;
+
+	/** Remembers up to 65536 chunks per world, using about 5MB each */
+	public SiteFinder() {
+		this(1 << 16);
+	}
+
+	public SiteFinder(int maxChunks) {
+		this.maxChunks = maxChunks;
+	}
+
+	/**
+	 * A place to put a structure: x/z are where to place the array origin (or the footprint's
+	 * corner with the lowest coordinates when searching for a plain footprint) and y is the
+	 * average ground height, i.e. the first air block. Roughness is the standard deviation
+	 * of the cells' mean height plus the average height difference within a cell; 0 is flat.
+	 */
+	public static final class Site
+	{
+		public final int x, y, z;
+		public final double roughness;
+
+		private Site(int x, int y, int z, double roughness) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.roughness = roughness;
+		}
+
+		@Override
+		public String toString() {
+			return "Site[" + x + ", " + y + ", " + z + ", roughness " + roughness + "]";
+		}
+	}
+
+	@ForgeSubscribe
+	public void onChunkLoad(ChunkEvent.Load event) {
+		if (!event.world.isRemote) {
+			update(event.world, event.getChunk());
+		}
+	}
+
+	@ForgeSubscribe
+	public void onWorldUnload(WorldEvent.Unload event) {
+		summaries.remove(event.world);
+	}
+
+	/**
+	 * Summarizes the chunk's current height map; call this after changing the terrain of a
+	 * loaded chunk, e.g. after placing a structure in it
+	 */
+	public void update(World world, Chunk chunk) {
+		byte[] summary = new byte[SUMMARY_SIZE];
+		int[] heights = chunk.heightMap;
+		for (int cellX = 0; cellX < CELLS; ++cellX) {
+			for (int cellZ = 0; cellZ < CELLS; ++cellZ) {
+				int min = 255, max = 0, sum = 0;
+				for (int x = cellX * CELL_SIZE; x < (cellX + 1) * CELL_SIZE; ++x) {
+					for (int z = cellZ * CELL_SIZE; z < (cellZ + 1) * CELL_SIZE; ++z) {
+						int height = Math.min(heights[z << 4 | x], 255);
+						min = Math.min(min, height);
+						max = Math.max(max, height);
+						sum += height;
+					}
+				}
+				int offset = (cellX * CELLS + cellZ) * 3;
+				summary[offset] = (byte) min;
+				summary[offset + 1] = (byte) max;
+				summary[offset + 2] = (byte) ((sum + CELL_SIZE * CELL_SIZE / 2) / (CELL_SIZE * CELL_SIZE));
+			}
+		}
+		Map<Long, byte[]> chunks = getSummaries(world);
+		Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(chunk.xPosition, chunk.zPosition));
+		// remove first so a reloaded chunk counts as the most recently loaded
+		chunks.remove(key);
+		chunks.put(key, summary);
+	}
+
+	/**
+	 * Finds the flattest site for the structure rotated clockwise the given number of times,
+	 * with the footprint's center no more than 'radius' blocks from centerX/centerZ along
+	 * either axis; returns null if no site lies completely in chunks that have been loaded
+	 */
+	public Site findSite(World world, PackedStructure structure, int rotations, int centerX, int centerZ, int radius) {
+		boolean swap = (rotations & 1) == 1;
+		Site site = findSite(world, centerX, centerZ, radius, swap ? structure.getWidthZ() : structure.getWidthX(),
+				swap ? structure.getWidthX() : structure.getWidthZ());
+		if (site == null) {
+			return null;
+		}
+		return new Site(site.x - structure.getRotatedOriginX(rotations), site.y, site.z - structure.getRotatedOriginZ(rotations), site.roughness);
+	}
+
+	/**
+	 * As above, for a Structure built as in the tutorials that should end up facing 'facing';
+	 * the footprint covers the largest of its block arrays. Its offsets are not applied.
+	 */
+	public Site findSite(World world, Structure structure, int facing, int centerX, int centerZ, int radius) {
+		int widthX = 0, widthZ = 0;
+		for (int[][][][] blocks : structure.blockArrayList()) {
+			if (blocks.length > 0) {
+				widthX = Math.max(widthX, blocks[0].length);
+				widthZ = Math.max(widthZ, blocks[0].length > 0 ? blocks[0][0].length : 0);
+			}
+		}
+		int rotations = BlockRotation.getRotations(structure.getFacing(), facing);
+		boolean swap = (rotations & 1) == 1;
+		Site site = findSite(world, centerX, centerZ, radius, swap ? widthZ : widthX, swap ? widthX : widthZ);
+		if (site == null || widthX == 0 || widthZ == 0) {
+			return site;
+		}
+		int originX = Math.min(0, BlockRotation.rotateX(widthX - 1, widthZ - 1, rotations));
+		int originZ = Math.min(0, BlockRotation.rotateZ(widthX - 1, widthZ - 1, rotations));
+		return new Site(site.x - originX, site.y, site.z - originZ, site.roughness);
+	}
+
+	/**
+	 * Finds the flattest widthX by widthZ footprint, aligned to 4x4 cells, whose center is no
+	 * more than 'radius' blocks from centerX/centerZ along either axis; ties go to the site
+	 * closest to the center. Returns null if no footprint lies completely in chunks that have
+	 * been loaded.
+	 */
+	public Site findSite(World world, int centerX, int centerZ, int radius, int widthX, int widthZ) {
+		Map<Long, byte[]> chunks = getSummaries(world);
+		int footX = Math.max(1, (widthX + CELL_SIZE - 1) / CELL_SIZE);
+		int footZ = Math.max(1, (widthZ + CELL_SIZE - 1) / CELL_SIZE);
+		int minCellX = (centerX - radius - widthX) >> CELL_SHIFT, minCellZ = (centerZ - radius - widthZ) >> CELL_SHIFT;
+		int gridX = ((centerX + radius + widthX) >> CELL_SHIFT) - minCellX + 1;
+		int gridZ = ((centerZ + radius + widthZ) >> CELL_SHIFT) - minCellZ + 1;
+		// summed-area tables, one row and column larger than the grid: mean, mean squared,
+		// height range within the cell, and missing cells
+		int stride = gridZ + 1;
+		long[] sumMean = new long[(gridX + 1) * stride];
+		long[] sumSquare = new long[sumMean.length];
+		long[] sumRange = new long[sumMean.length];
+		int[] sumMissing = new int[sumMean.length];
+		byte[] summary = null;
+		long summaryKey = 0;
+		for (int i = 0; i < gridX; ++i) {
+			int cellX = minCellX + i;
+			for (int k = 0; k < gridZ; ++k) {
+				int cellZ = minCellZ + k;
+				long key = ChunkCoordIntPair.chunkXZ2Int((cellX << CELL_SHIFT) >> 4, (cellZ << CELL_SHIFT) >> 4);
+				if (summary == null || key != summaryKey) {
+					summary = chunks.get(key);
+					summaryKey = key;
+				}
+				int mean = 0, range = 0, missing = 0;
+				if (summary == null) {
+					missing = 1;
+				} else {
+					int offset = ((cellX & (CELLS - 1)) * CELLS + (cellZ & (CELLS - 1))) * 3;
+					range = (summary[offset + 1] & 0xFF) - (summary[offset] & 0xFF);
+					mean = summary[offset + 2] & 0xFF;
+				}
+				int n = (i + 1) * stride + (k + 1);
+				int up = n - stride, left = n - 1, diagonal = n - stride - 1;
+				sumMean[n] = mean + sumMean[up] + sumMean[left] - sumMean[diagonal];
+				sumSquare[n] = mean * mean + sumSquare[up] + sumSquare[left] - sumSquare[diagonal];
+				sumRange[n] = range + sumRange[up] + sumRange[left] - sumRange[diagonal];
+				sumMissing[n] = missing + sumMissing[up] + sumMissing[left] - sumMissing[diagonal];
+			}
+		}
+		int cells = footX * footZ;
+		Site best = null;
+		long bestDistance = 0;
+		for (int i = 0; i + footX <= gridX; ++i) {
+			int x = (minCellX + i) * CELL_SIZE;
+			int dx = x + widthX / 2 - centerX;
+			if (dx < -radius || dx > radius) {
+				continue;
+			}
+			for (int k = 0; k + footZ <= gridZ; ++k) {
+				int z = (minCellZ + k) * CELL_SIZE;
+				int dz = z + widthZ / 2 - centerZ;
+				if (dz < -radius || dz > radius) {
+					continue;
+				}
+				int a = i * stride + k, b = a + footZ, c = a + footX * stride, d = c + footZ;
+				if (sumMissing[d] - sumMissing[b] - sumMissing[c] + sumMissing[a] != 0) {
+					continue;
+				}
+				double mean = (double) (sumMean[d] - sumMean[b] - sumMean[c] + sumMean[a]) / cells;
+				double variance = (double) (sumSquare[d] - sumSquare[b] - sumSquare[c] + sumSquare[a]) / cells - mean * mean;
+				double range = (double) (sumRange[d] - sumRange[b] - sumRange[c] + sumRange[a]) / cells;
+				double roughness = Math.sqrt(Math.max(variance, 0.0D)) + range;
+				long distance = (long) dx * dx + (long) dz * dz;
+				if (best == null || roughness < best.roughness || (roughness == best.roughness && distance < bestDistance)) {
+					best = new Site(x, (int) Math.round(mean), z, roughness);
+					bestDistance = distance;
+				}
+			}
+		}
+		return best;
+	}
+
+	private Map<Long, byte[]> getSummaries(World world) {
+		Map<Long, byte[]> chunks = summaries.get(world);
+		if (chunks == null) {
+			chunks = new LinkedHashMap<Long, byte[]>(256, 0.75F, false) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+					return size() > maxChunks;
+				}
+			};
+			summaries.put(world, chunks);
+		}
+		return chunks;
+	}
+}
@@ -0,0 +1,104 @@
+package coolalias.structuregen;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A BlockCursor over one or more block arrays stacked bottom-up, as added to a Structure with
+ * addBlockArray. Reads each array in place, one after the other, and never copies any of them.
+ */
+public class StackedArrayCursor implements BlockCursor
+{
+	private final Iterator<int[][][][]> arrays;
+
+	private final int widthX, height, widthZ;
+
+	/** The array currently being read, and the height at which it starts */
+	private int[][][][] blocks;
+	private int baseY;
+
+	/** Position within the current array; starts just before the first position */
+	private int y, x, z = -1;
+
+	private int[] block;
+
+	public StackedArrayCursor(Structure structure) {
+		this(structure.blockArrayList());
+	}
+
+	public StackedArrayCursor(int[][][][] blocks) {
+		this(singleton(blocks));
+	}
+
+	public StackedArrayCursor(List<int[][][][]> blockArrays) {
+		int widthX = 0, height = 0, widthZ = 0;
+		for (int[][][][] array : blockArrays) {
+			height += array.length;
+			for (int[][][] layer : array) {
+				widthX = Math.max(widthX, layer.length);
+				for (int[][] column : layer) {
+					widthZ = Math.max(widthZ, column.length);
+				}
+			}
+		}
+		this.widthX = widthX;
+		this.height = height;
+		this.widthZ = widthZ;
+		this.arrays = blockArrays.iterator();
+		this.blocks = (arrays.hasNext() ? arrays.next() : null);
+	}
+
+	private static List<int[][][][]> singleton(int[][][][] blocks) {
+		List<int[][][][]> list = new ArrayList<int[][][][]>(1);
+		list.add(blocks);
+		return list;
+	}
+
+	@Override
+	public boolean next() {
+		while (blocks != null) {
+			while (y < blocks.length) {
+				int[][][] layer = blocks[y];
+				while (x < layer.length) {
+					int[][] column = layer[x];
+					while (++z < column.length) {
+						block = column[z];
+						if (block != null && block.length > 0) {
+							return true;
+						}
+					}
+					z = -1;
+					++x;
+				}
+				x = 0;
+				++y;
+			}
+			baseY += blocks.length;
+			y = 0;
+			blocks = (arrays.hasNext() ? arrays.next() : null);
+		}
+		block = null;
+		return false;
+	}
+
+	@Override public int getWidthX() { return widthX; }
+
+	@Override public int getHeight() { return height; }
+
+	@Override public int getWidthZ() { return widthZ; }
+
+	@Override public int getX() { return x; }
+
+	@Override public int getY() { return baseY + y; }
+
+	@Override public int getZ() { return z; }
+
+	@Override public int getBlockID() { return block[0]; }
+
+	@Override public int getMetadata() { return (block.length > 1 ? block[1] : 0); }
+
+	@Override public int getCustomData1() { return (block.length > 2 ? block[2] : 0); }
+
+	@Override public int getCustomData2() { return (block.length > 3 ? block[3] : 0); }
+}
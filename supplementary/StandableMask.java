@@ -0,0 +1,113 @@
+package coolalias.structuregen;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+
+/**
+ * One bit for every position in a structure telling whether an entity can stand there: the
+ * block below is solid and the block itself and the one above can be walked through, which
+ * liquids can't: no one should be placed standing in water or lava.
+ *
+ * The mask is worked out once from the structure's blocks (see PackedStructure.getStandableMask),
+ * so putting dozens of villagers or guards into a structure is a bit lookup each instead of
+ * probing the world around every placeholder. Positions left empty ('{}') keep whatever the
+ * world had, so they never count as standable, while anything above the top of the structure
+ * counts as open air.
+ */
+public class StandableMask
+{
+	private final int widthX, height, widthZ;
+
+	/** Bits indexed the same way as PackedStructure: (y * widthX + x) * widthZ + z */
+	private final long[] bits;
+
+	private StandableMask(int widthX, int height, int widthZ) {
+		this.widthX = widthX;
+		this.height = height;
+		this.widthZ = widthZ;
+		this.bits = new long[(widthX * height * widthZ + 63) >> 6];
+	}
+
+	/**
+	 * Builds the mask for the structure in its default facing
+	 * @param generator Used to find the real block id of custom hooks
+	 */
+	static StandableMask build(PackedStructure structure, StructureGeneratorBase generator) {
+		int widthX = structure.getWidthX(), height = structure.getHeight(), widthZ = structure.getWidthZ();
+		StandableMask mask = new StandableMask(widthX, height, widthZ);
+		// what each palette entry is like: 1 solid, 2 passable, 0 neither (e.g. water or lava) or EMPTY
+		int[] kind = new int[structure.getPaletteSize()];
+		for (int i = 1; i < kind.length; ++i) {
+			int[] tuple = structure.getTuple(i);
+			int blockID = (tuple[0] >= StructurePlacer.FIRST_HOOK_ID ? generator.getRealBlockID(tuple[0], tuple[2]) : tuple[0]);
+			Block block = (blockID > 0 && blockID < Block.blocksList.length ? Block.blocksList[blockID] : null);
+			kind[i] = (block == null ? 2 : block.blockMaterial.isLiquid() ? 0 : block.blockMaterial.blocksMovement() ? 1 : 2);
+		}
+		for (int y = 1; y < height; ++y) {
+			for (int x = 0; x < widthX; ++x) {
+				for (int z = 0; z < widthZ; ++z) {
+					if (kind[structure.getPaletteIndex(x, y - 1, z)] == 1 && kind[structure.getPaletteIndex(x, y, z)] == 2
+							&& (y + 1 == height || kind[structure.getPaletteIndex(x, y + 1, z)] == 2)) {
+						int index = (y * widthX + x) * widthZ + z;
+						mask.bits[index >> 6] |= 1L << index;
+					}
+				}
+			}
+		}
+		return mask;
+	}
+
+	/** Returns true if an entity can stand at the position within the structure; false if outside of it */
+	public final boolean isStandable(int x, int y, int z) {
+		if (x < 0 || x >= widthX || y < 0 || y >= height || z < 0 || z >= widthZ) {
+			return false;
+		}
+		int index = (y * widthX + x) * widthZ + z;
+		return (bits[index >> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Returns true if an entity can stand at x/y/z in the world, for the structure placed
+	 * with its array origin at posX/posY/posZ and rotated clockwise the given number of times
+	 */
+	public final boolean isStandable(int x, int y, int z, int posX, int posY, int posZ, int rotations) {
+		// undo the rotation to get back to the structure's own coordinates
+		int back = (4 - (rotations & 3)) & 3;
+		int dx = x - posX, dz = z - posZ;
+		return isStandable(BlockRotation.rotateX(dx, dz, back), y - posY, BlockRotation.rotateZ(dx, dz, back));
+	}
+
+	/**
+	 * Moves the entity to the standable position closest to x/y/z (e.g. its placeholder
+	 * block) within 'radius' blocks horizontally and one block up or down, for the structure
+	 * placed as for isStandable. Returns false, leaving the entity where it was, if there is
+	 * no such position. Doesn't look at the world at all.
+	 */
+	public boolean setEntityInStructure(Entity entity, int x, int y, int z, int posX, int posY, int posZ, int rotations, int radius) {
+		for (int r = 0; r <= radius; ++r) {
+			for (int dy = 0; dy <= 2; ++dy) {
+				// same layer first, then one up, then one down
+				int j = y + (dy == 2 ? -1 : dy);
+				for (int dx = -r; dx <= r; ++dx) {
+					for (int dz = -r; dz <= r; ++dz) {
+						// only the outline of each ring, as the inside was checked for smaller r
+						if ((dx == -r || dx == r || dz == -r || dz == r) && isStandable(x + dx, j, z + dz, posX, posY, posZ, rotations)) {
+							entity.setLocationAndAngles(x + dx + 0.5D, j, z + dz + 0.5D, entity.rotationYaw, entity.rotationPitch);
+							return true;
+						}
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/** Returns the number of standable positions in the structure */
+	public int count() {
+		int count = 0;
+		for (long word : bits) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+}
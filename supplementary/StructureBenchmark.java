@@ -0,0 +1,182 @@
+package coolalias.structuregen;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Random;
+
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * Times StructurePlanner and the placement code on structures of different shapes, in every
+ * facing, to give a baseline to compare changes against. This runs on its own, without a
+ * server, as long as the mod's classes and the game jar are on the classpath:
+ *
+ * java -cp <classpath> coolalias.structuregen.StructureBenchmark [seconds per case]
+ *
+ * Each case is planned both from a PackedStructure and from a RunLengthStructure, then the
+ * plan is written into empty chunk storage the way BATCHED placement does (writeStorage),
+ * queueing each block written in a ChunkUpdateBatch. Every case reports blocks per second
+ * and, where the JVM can tell, bytes allocated per block.
+ *
+ * There is no World without a running server, so relighting, neighbor notifications, custom
+ * hooks and sending chunks to players aren't timed here; StructureMetrics reports those for
+ * real placements.
+ */
+public class StructureBenchmark
+{
+	/** Seconds spent warming up each case before it is timed */
+	private static final int WARMUP_SECONDS = 1;
+
+	/** Keeps the JIT from dropping plans that are never used */
+	private static long sink;
+
+	public static void main(String[] args) {
+		int seconds = (args.length > 0 ? Integer.parseInt(args[0]) : 3);
+		StructurePlanner planner = new StructurePlanner(new MyStructureGenerator());
+		run(planner, "Tutorial house", StructureArrayTutorial.blockArrayTutorial, seconds);
+		run(planner, "Solid cube 32", solidCube(32), seconds);
+		run(planner, "Sparse ruin 128", sparseRuin(128, new Random(42L)), seconds);
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	private static void run(StructurePlanner planner, String name, int[][][][] blocks, int seconds) {
+		PackedStructure packed = PackedStructure.fromBlockArray(blocks, StructureGeneratorBase.SOUTH);
+		RunLengthStructure rle = RunLengthStructure.fromPacked(packed);
+		System.out.println(name + ": " + packed.getWidthX() + "x" + packed.getHeight() + "x" + packed.getWidthZ());
+		for (int rotations = 0; rotations < 4; ++rotations) {
+			time(planner, packed, null, "packed", rotations, WARMUP_SECONDS);
+			System.out.println(time(planner, packed, null, "packed", rotations, seconds));
+			time(planner, null, rle, "run-length", rotations, WARMUP_SECONDS);
+			System.out.println(time(planner, null, rle, "run-length", rotations, seconds));
+			PlacementPlan plan = planner.plan(packed, 0, 64, 0, rotations, 256);
+			timeWrite(plan, rotations, WARMUP_SECONDS);
+			System.out.println(timeWrite(plan, rotations, seconds));
+		}
+	}
+
+	/** Plans one of the structures over and over for the given time and returns the result */
+	private static Result time(StructurePlanner planner, PackedStructure packed, RunLengthStructure rle, String encoding, int rotations, int seconds) {
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime(), end = start + seconds * 1000000000L, now;
+		long blocks = 0;
+		int plans = 0;
+		do {
+			PlacementPlan plan = (packed != null ? planner.plan(packed, 0, 64, 0, rotations, 256) : planner.plan(rle, 0, 64, 0, rotations, 256));
+			blocks += plan.getBlockCount();
+			sink += plan.getBlockCount() + plan.getHookCount();
+			++plans;
+			now = System.nanoTime();
+		} while (now < end);
+		long allocatedAfter = getAllocatedBytes();
+		return new Result(encoding, rotations, plans, blocks, now - start, (allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore));
+	}
+
+	/**
+	 * Writes the plan into new, empty chunk storage over and over for the given time, as
+	 * BATCHED placement does in freshly generated chunks, and returns the result
+	 */
+	private static Result timeWrite(PlacementPlan plan, int rotations, int seconds) {
+		List<PlacementPlan.ChunkGroup> groups = plan.getChunks();
+		PlacementStats stats = new PlacementStats();
+		StructurePlacer.IntList relight = new StructurePlacer.IntList();
+		ChunkUpdateBatch updates = new ChunkUpdateBatch();
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime(), end = start + seconds * 1000000000L, now;
+		long blocks = 0;
+		int writes = 0;
+		do {
+			for (int g = 0; g < groups.size(); ++g) {
+				PlacementPlan.ChunkGroup group = groups.get(g);
+				boolean[] written = new boolean[group.size()];
+				sink += StructurePlacer.writeStorage(new ExtendedBlockStorage[16], null, true, group, false, written, stats, null, relight);
+				for (int n = 0; n < group.size(); ++n) {
+					if (written[n]) {
+						updates.add(group.getX(n), group.getY(n), group.getZ(n));
+					}
+				}
+			}
+			blocks += plan.getBlockCount();
+			sink += relight.size();
+			relight.clear();
+			updates = new ChunkUpdateBatch();
+			++writes;
+			now = System.nanoTime();
+		} while (now < end);
+		long allocatedAfter = getAllocatedBytes();
+		return new Result("write", rotations, writes, blocks, now - start, (allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore));
+	}
+
+	/**
+	 * Returns the bytes allocated by this thread so far, or -1 if the JVM doesn't say; only
+	 * HotSpot's ThreadMXBean does, so it is called through reflection
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try {
+			Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+			Object bytes = type.getMethod("getThreadAllocatedBytes", long.class).invoke(bean, Thread.currentThread().getId());
+			return ((Long) bytes).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/** Returns a solid cube of stone with the given edge length */
+	static int[][][][] solidCube(int size) {
+		int[][][][] blocks = new int[size][size][size][];
+		for (int y = 0; y < size; ++y) {
+			for (int x = 0; x < size; ++x) {
+				for (int z = 0; z < size; ++z) {
+					blocks[y][x][z] = new int[] {1};
+				}
+			}
+		}
+		return blocks;
+	}
+
+	/**
+	 * Returns a ruin with the given edge length: crumbling outer walls of cobblestone and
+	 * mossy cobblestone with a floor, thinning out towards the top, and empty inside
+	 */
+	static int[][][][] sparseRuin(int size, Random rand) {
+		int[][][][] blocks = new int[size][size][size][];
+		for (int y = 0; y < size; ++y) {
+			// chance of each wall block still standing, from 90% at the bottom down to 10%
+			float chance = 0.9F - 0.8F * y / size;
+			for (int x = 0; x < size; ++x) {
+				for (int z = 0; z < size; ++z) {
+					boolean wall = (x == 0 || x == size - 1 || z == 0 || z == size - 1);
+					if (y == 0 || (wall && rand.nextFloat() < chance)) {
+						blocks[y][x][z] = new int[] {rand.nextInt(4) == 0 ? 48 : 4};
+					} else {
+						blocks[y][x][z] = new int[] {0};
+					}
+				}
+			}
+		}
+		return blocks;
+	}
+
+	private static final class Result
+	{
+		private final String encoding;
+		private final int rotations, runs;
+		private final long blocks, nanos, allocated;
+
+		private Result(String encoding, int rotations, int runs, long blocks, long nanos, long allocated) {
+			this.encoding = encoding;
+			this.rotations = rotations;
+			this.runs = runs;
+			this.blocks = blocks;
+			this.nanos = nanos;
+			this.allocated = allocated;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("  %-10s rotations %d: %,12.0f blocks/s, %,10.1f us/run, %s (%d runs)", encoding, rotations,
+					blocks * 1.0E9D / nanos, nanos / 1000.0D / runs, (allocated < 0 ? "allocation unknown" : String.format("%.1f bytes/block", (double) allocated / Math.max(1, blocks))), runs);
+		}
+	}
+}
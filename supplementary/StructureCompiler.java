@@ -0,0 +1,185 @@
+package coolalias.structuregen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build step that turns block arrays written in the StructureArrayTutorial style into packed
+ * '.struct' resources, plus a small generated class that registers them. The mod then ships
+ * and loads only the packed files, and the classes holding the arrays never need to be
+ * loaded (or even included in the jar), so their huge static initializers never run.
+ *
+ * Arguments:
+ *
+ * resourceDir   directory that ends up in the jar, e.g. build/generated/structures
+ * resourcePath  path of the structure files inside the jar, e.g. /assets/yourmod/structures
+ * sourceDir     directory for the generated registration class
+ * stubClass     fully qualified name of the registration class to generate
+ * entries...    one per structure: name=fully.qualified.Class.field, optionally followed by
+ *               @facing (0 south, 1 west, 2 north, 3 east; default 0)
+ *
+ * Every array is checked with StructureValidator first; if any problems are found they are
+ * printed, nothing is written and the exit code is 1, so the build fails.
+ *
+ * Keep the array classes in their own source set so they can be compiled and run before the
+ * main sources, which include the generated class. In the mod's build.gradle:
+ *
+ * sourceSets { structures { compileClasspath += main.compileClasspath } }
+ *
+ * task compileStructures(type: JavaExec, dependsOn: structuresClasses) {
+ *     classpath = sourceSets.structures.runtimeClasspath + sourceSets.main.compileClasspath
+ *     main = 'coolalias.structuregen.StructureCompiler'
+ *     args 'build/generated/structures', '/assets/yourmod/structures', 'build/generated/structureSrc',
+ *         'yourmod.GeneratedStructures', 'Tutorial Home=coolalias.structuregen.StructureArrayTutorial.blockArrayTutorial@1'
+ * }
+ * sourceSets.main.java.srcDir 'build/generated/structureSrc'
+ * sourceSets.main.resources.srcDir 'build/generated/structures'
+ * compileJava.dependsOn compileStructures
+ *
+ * and at runtime, in place of adding the arrays to Structures:
+ *
+ * GeneratedStructures.register(MyStructureGenerator.structures);
+ */
+public class StructureCompiler
+{
+	private StructureCompiler() {}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 5) {
+			System.err.println("Usage: StructureCompiler <resourceDir> <resourcePath> <sourceDir> <stubClass> <name=class.field[@facing]>...");
+			System.exit(2);
+		}
+		File resourceDir = new File(args[0]);
+		String resourcePath = args[1].endsWith("/") ? args[1] : args[1] + "/";
+		if (!resourcePath.startsWith("/")) {
+			resourcePath = "/" + resourcePath;
+		}
+		File sourceDir = new File(args[2]);
+		String stubClass = args[3];
+
+		List<String> names = new ArrayList<String>();
+		List<PackedStructure> structures = new ArrayList<PackedStructure>();
+		List<String> problems = new ArrayList<String>();
+		// structure name for each file name, as different names can give the same file name
+		Map<String, String> fileNames = new HashMap<String, String>();
+		for (int i = 4; i < args.length; ++i) {
+			String entry = args[i];
+			int equals = entry.indexOf('=');
+			int at = entry.lastIndexOf('@');
+			int dot = entry.lastIndexOf('.', at > equals ? at : entry.length());
+			if (equals < 1 || dot < equals) {
+				problems.add("Invalid entry '" + entry + "'; expected name=fully.qualified.Class.field[@facing]");
+				continue;
+			}
+			String name = entry.substring(0, equals);
+			String className = entry.substring(equals + 1, dot);
+			String fieldName = entry.substring(dot + 1, at > dot ? at : entry.length());
+			int facing = 0;
+			if (at > dot) {
+				try {
+					facing = Integer.parseInt(entry.substring(at + 1));
+				} catch (NumberFormatException e) {
+					facing = -1;
+				}
+				if (facing < 0 || facing > 3) {
+					problems.add(name + ": invalid facing '" + entry.substring(at + 1) + "'; expected 0 to 3");
+					continue;
+				}
+			}
+			String other = fileNames.put(getFileName(name), name);
+			if (other != null) {
+				problems.add(name + ": would be written to the same file as " + other + "; rename one of them");
+				continue;
+			}
+			int[][][][] blocks;
+			try {
+				blocks = (int[][][][]) Class.forName(className).getField(fieldName).get(null);
+			} catch (Exception e) {
+				problems.add(name + ": unable to load " + className + "." + fieldName + " (" + e + ")");
+				continue;
+			} catch (LinkageError e) {
+				// e.g. the array class's static initializer failed
+				problems.add(name + ": unable to load " + className + " (" + e + ")");
+				continue;
+			}
+			if (StructureValidator.checkBlockArray(name, blocks, false, problems)) {
+				names.add(name);
+				// the name is written into the file, so placements are recorded under it
+				structures.add(PackedStructure.fromCursor(name, facing, new StackedArrayCursor(blocks)));
+			}
+		}
+		if (!problems.isEmpty()) {
+			for (String problem : problems) {
+				System.err.println(problem);
+			}
+			System.exit(1);
+		}
+
+		File structureDir = new File(resourceDir, resourcePath.substring(1));
+		structureDir.mkdirs();
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i < structures.size(); ++i) {
+			String fileName = getFileName(names.get(i)) + StructureFile.EXTENSION;
+			StructureFile.write(structures.get(i), new File(structureDir, fileName));
+			paths.add(resourcePath + fileName);
+			System.out.println("Packed " + names.get(i) + " into " + resourcePath + fileName);
+		}
+		writeStub(sourceDir, stubClass, names, paths);
+	}
+
+	/** Returns a file name for the structure using only lower case letters, digits and '_' */
+	private static String getFileName(String name) {
+		StringBuilder fileName = new StringBuilder(name.length());
+		for (char c : name.toLowerCase().toCharArray()) {
+			fileName.append((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ? c : '_');
+		}
+		return fileName.toString();
+	}
+
+	private static void writeStub(File sourceDir, String stubClass, List<String> names, List<String> paths) throws IOException {
+		int dot = stubClass.lastIndexOf('.');
+		String packageName = (dot < 0 ? null : stubClass.substring(0, dot));
+		String simpleName = stubClass.substring(dot + 1);
+		File file = new File(sourceDir, stubClass.replace('.', File.separatorChar) + ".java");
+		file.getParentFile().mkdirs();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			if (packageName != null) {
+				out.write("package " + packageName + ";\n\n");
+			}
+			out.write("import coolalias.structuregen.StructureRegistry;\n\n");
+			out.write("/** Generated by StructureCompiler; do not edit */\n");
+			out.write("public final class " + simpleName + "\n{\n");
+			out.write("\tprivate " + simpleName + "() {}\n\n");
+			out.write("\tpublic static void register(StructureRegistry registry) {\n");
+			for (int i = 0; i < names.size(); ++i) {
+				out.write("\t\tregistry.registerResource(" + quote(names.get(i)) + ", " + simpleName + ".class, " + quote(paths.get(i)) + ");\n");
+			}
+			out.write("\t}\n}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Returns the string as a Java string literal */
+	private static String quote(String s) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < ' ' || c > '~') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
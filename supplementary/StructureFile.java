@@ -0,0 +1,245 @@
+package coolalias.structuregen;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes the binary '.struct' format for PackedStructures.
+ *
+ * Layout, all values big-endian:
+ *
+ * int    MAGIC ('STRC')
+ * int    VERSION
+ * int    facing
+ * int    widthX, height, widthZ
+ * int    palette size, followed by TUPLE_SIZE ints per palette entry
+ * int    name length in bytes, followed by the UTF-8 name (length -1 if no name)
+ * ...    zero padding up to the next multiple of 8 bytes
+ * long[] packed palette indices, as stored by PackedStructure
+ *
+ * Structure files on disk are memory-mapped read-only, so the block data is only paged in
+ * by the operating system when a structure is actually generated. Files inside of your mod's
+ * jar can't be mapped, so those are read into the heap with read(InputStream) instead.
+ */
+public class StructureFile
+{
+	public static final int MAGIC = 0x53545243;
+
+	public static final int VERSION = 1;
+
+	/** File extension used for structure files */
+	public static final String EXTENSION = ".struct";
+
+	private StructureFile() {}
+
+	/**
+	 * Writes the structure to the given file, replacing any existing file
+	 */
+	public static void write(PackedStructure structure, File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			write(structure, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the structure in the '.struct' format to the given stream, which is not closed
+	 */
+	public static void write(PackedStructure structure, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(structure.getFacing());
+		out.writeInt(structure.getWidthX());
+		out.writeInt(structure.getHeight());
+		out.writeInt(structure.getWidthZ());
+		out.writeInt(structure.getPaletteSize());
+		for (int i = 0; i < structure.getPaletteSize(); ++i) {
+			int[] tuple = structure.getTuple(i);
+			for (int j = 0; j < PackedStructure.TUPLE_SIZE; ++j) {
+				out.writeInt(tuple[j]);
+			}
+		}
+		if (structure.name == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] name = structure.name.getBytes("UTF-8");
+			out.writeInt(name.length);
+			out.write(name);
+		}
+		while (out.size() % 8 != 0) {
+			out.writeByte(0);
+		}
+		LongBuffer data = structure.getPackedData();
+		data.rewind();
+		while (data.hasRemaining()) {
+			out.writeLong(data.get());
+		}
+	}
+
+	/**
+	 * Memory-maps the structure file read-only; only the header and palette are read
+	 * right away, the block data is paged in on demand as it is accessed
+	 */
+	public static PackedStructure map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return read(buffer, file.getName());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads an entire structure from the stream into the heap, e.g. from a jar resource;
+	 * the stream is not closed
+	 */
+	public static PackedStructure read(InputStream stream, String source) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		byte[] header = new byte[28];
+		in.readFully(header);
+		ByteBuffer buffer = ByteBuffer.wrap(header);
+		checkHeader(buffer, source);
+		int paletteSize = buffer.getInt(24);
+		int headerLength = 28 + paletteSize * PackedStructure.TUPLE_SIZE * 4 + 4;
+		byte[] bytes = new byte[headerLength];
+		System.arraycopy(header, 0, bytes, 0, header.length);
+		in.readFully(bytes, header.length, headerLength - header.length);
+		int nameLength = ByteBuffer.wrap(bytes).getInt(headerLength - 4);
+		int dataLength = PackedStructure.getDataLength(buffer.getInt(12) * buffer.getInt(16) * buffer.getInt(20),
+				PackedStructure.getBitsRequired(paletteSize));
+		long length = ((long) headerLength + Math.max(nameLength, 0) + 7L & ~7L) + dataLength * 8L;
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Structure file " + source + " is too large to read");
+		}
+		byte[] all = new byte[(int) length];
+		System.arraycopy(bytes, 0, all, 0, headerLength);
+		in.readFully(all, headerLength, all.length - headerLength);
+		return read(ByteBuffer.wrap(all), source);
+	}
+
+	/** Convenience method for reading a structure file without memory-mapping it */
+	public static PackedStructure read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in, file.getName());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static PackedStructure read(ByteBuffer buffer, String source) throws IOException {
+		checkHeader(buffer, source);
+		buffer.position(8);
+		int facing = buffer.getInt();
+		int widthX = buffer.getInt();
+		int height = buffer.getInt();
+		int widthZ = buffer.getInt();
+		int paletteSize = buffer.getInt();
+		if (buffer.remaining() < paletteSize * PackedStructure.TUPLE_SIZE * 4 + 4) {
+			throw new IOException("Structure file " + source + " is truncated");
+		}
+		int[][] palette = new int[paletteSize][PackedStructure.TUPLE_SIZE];
+		for (int i = 0; i < paletteSize; ++i) {
+			for (int j = 0; j < PackedStructure.TUPLE_SIZE; ++j) {
+				palette[i][j] = buffer.getInt();
+			}
+		}
+		String name = null;
+		int nameLength = buffer.getInt();
+		if (nameLength > buffer.remaining()) {
+			throw new IOException("Structure file " + source + " is truncated");
+		} else if (nameLength >= 0) {
+			byte[] bytes = new byte[nameLength];
+			buffer.get(bytes);
+			name = new String(bytes, "UTF-8");
+		}
+		buffer.position(align(buffer.position()));
+		int dataLength = PackedStructure.getDataLength(widthX * height * widthZ, PackedStructure.getBitsRequired(paletteSize));
+		if (buffer.remaining() < dataLength * 8L) {
+			throw new IOException("Structure file " + source + " is truncated");
+		}
+		buffer.limit(buffer.position() + dataLength * 8);
+		LongBuffer data = buffer.slice().asLongBuffer();
+		return new PackedStructure(name, facing, widthX, height, widthZ, palette, data);
+	}
+
+	/**
+	 * Checks the magic number, version, dimensions and palette size in the first 28 bytes, so
+	 * nothing is allocated from the sizes of a corrupt file
+	 */
+	private static void checkHeader(ByteBuffer buffer, String source) throws IOException {
+		if (buffer.limit() < 28 || buffer.getInt(0) != MAGIC) {
+			throw new IOException(source + " is not a structure file");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported version " + buffer.getInt(4) + " in structure file " + source);
+		}
+		int widthX = buffer.getInt(12), height = buffer.getInt(16), widthZ = buffer.getInt(20), paletteSize = buffer.getInt(24);
+		// anything larger would overflow the block count or the palette's size in bytes
+		if (widthX < 0 || height < 0 || widthZ < 0 || (long) widthX * height * widthZ > Integer.MAX_VALUE - 64
+				|| paletteSize < 1 || paletteSize > (Integer.MAX_VALUE - 64) / (PackedStructure.TUPLE_SIZE * 4)) {
+			throw new IOException("Invalid dimensions or palette size in structure file " + source);
+		}
+	}
+
+	/** Rounds the offset up to the next multiple of 8 so the block data can be viewed as longs */
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	/**
+	 * Holds the location of a registered structure file and maps it the first time it is
+	 * needed, so registering hundreds of structures costs nothing until they are generated
+	 */
+	public static class Handle
+	{
+		private final File file;
+
+		private volatile PackedStructure structure;
+
+		public Handle(File file) {
+			this.file = file;
+		}
+
+		public final File getFile() {
+			return file;
+		}
+
+		/** Returns true if the file has already been mapped */
+		public final boolean isLoaded() {
+			return structure != null;
+		}
+
+		/**
+		 * Returns the mapped structure, mapping the file on first access
+		 */
+		public final PackedStructure get() throws IOException {
+			PackedStructure result = structure;
+			if (result == null) {
+				synchronized (this) {
+					result = structure;
+					if (result == null) {
+						result = map(file);
+						structure = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package coolalias.structuregen;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.minecraft.world.World;
+
+/**
+ * Generates a PackedStructure a little at a time, so that large structures don't have to be
+ * built inside of a single server tick. Jobs are queued with StructureJobQueue, which calls
+ * generate each tick with whatever time and block budget is left.
+ *
+ * The job remembers where it left off (a cursor of y layer, x and z index into the structure),
+ * so it simply resumes there the next tick. Custom hooks are held back until every block in
+ * their layer has been placed, so onCustomBlockAdded never sees a half-finished layer.
+ *
+ * Blocks are not sent to clients one by one; at the end of each tick's slice the changes are
+ * sent as one packet per chunk with a ChunkUpdateBatch.
+ *
+ * Each slice is recorded to the structure's StructureMetrics; once the last layer is finished
+ * the placement is counted and the structure added to the world's StructureIndex.
+ */
+public class StructureGenerationJob
+{
+	private static final AtomicInteger nextJobID = new AtomicInteger();
+
+	/** Unique id of this job, e.g. for cancelling it from a command */
+	public final int jobID = nextJobID.incrementAndGet();
+
+	private final World world;
+	private final PackedStructure structure;
+	private final StructureGeneratorBase generator;
+	private final int posX, posY, posZ, rotations;
+
+	/** Cursor into the structure: the next position to be placed */
+	private int cursorX, cursorY, cursorZ;
+
+	/** Custom hooks found in the current layer */
+	private final CustomHookRegistry.Batch layerHooks = new CustomHookRegistry.Batch();
+
+	/** Number of structure positions processed so far, including EMPTY ones */
+	private int processed;
+
+	private volatile boolean cancelled;
+
+	/** Positions changed since the last client update */
+	private final ChunkUpdateBatch updates = new ChunkUpdateBatch();
+
+	/** If not null, every block is recorded here before it is overwritten */
+	private UndoJournal journal;
+
+	private final StructureMetrics metrics;
+
+	/** Blocks, hooks and time of the current call to generate */
+	private PlacementStats stats;
+
+	/** Item frames and paintings placed by this job's hooks, kept across ticks until the job finishes */
+	private final HangingEntities hangingEntities = new HangingEntities();
+
+	/** Where the structure was added to the StructureIndex once finished */
+	private StructureIndex.Bounds bounds;
+
+	/**
+	 * Creates a job that places the structure with its array origin at posX/posY/posZ after
+	 * rotating it clockwise the given number of times, using the generator for custom hooks
+	 */
+	public StructureGenerationJob(World world, PackedStructure structure, StructureGeneratorBase generator, int posX, int posY, int posZ, int rotations) {
+		this.world = world;
+		this.structure = structure;
+		this.generator = generator;
+		this.posX = posX;
+		this.posY = posY;
+		this.posZ = posZ;
+		this.rotations = rotations;
+		this.metrics = StructureMetrics.get(structure.name);
+	}
+
+	public final World getWorld() {
+		return world;
+	}
+
+	public final PackedStructure getStructure() {
+		return structure;
+	}
+
+	/**
+	 * Records every block the job overwrites from now on in the journal, so it can be undone;
+	 * see StructureJobQueue.add(job, true)
+	 */
+	public final void setJournal(UndoJournal journal) {
+		this.journal = journal;
+	}
+
+	public final UndoJournal getJournal() {
+		return journal;
+	}
+
+	/** Returns the structure's entry in the world's StructureIndex, or null if it isn't finished */
+	public final StructureIndex.Bounds getBounds() {
+		return bounds;
+	}
+
+	/** Returns a value from 0.0F to 1.0F showing how much of the structure has been generated */
+	public final float getProgress() {
+		int total = structure.getWidthX() * structure.getHeight() * structure.getWidthZ();
+		return (total == 0 ? 1.0F : (float) processed / (float) total);
+	}
+
+	/**
+	 * Stops the job the next time it would place a block; blocks already placed stay where they
+	 * are, and hooks waiting for the current layer to finish will not be run
+	 */
+	public final void cancel() {
+		cancelled = true;
+	}
+
+	public final boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** Lets go of the hanging entities placed for this structure, e.g. once a cancelled job is dropped */
+	final void release() {
+		hangingEntities.clear();
+	}
+
+	/** Returns true once every layer has been placed and its hooks run, or the job was cancelled */
+	public final boolean isFinished() {
+		return cancelled || cursorY >= structure.getHeight();
+	}
+
+	/**
+	 * Places blocks until either the structure is finished, maxBlocks blocks have been placed
+	 * or System.nanoTime() passes the deadline, and returns the number of blocks placed.
+	 * Clients are sent everything changed during the call at the end, once per chunk.
+	 */
+	public int generate(int maxBlocks, long deadline) {
+		long start = System.nanoTime();
+		boolean finished = isFinished();
+		stats = new PlacementStats();
+		StructureMetrics previous = StructureMetrics.enter(metrics);
+		HangingEntities previousHanging = HangingEntities.enter(hangingEntities);
+		try {
+			stats.written = placeBlocks(maxBlocks, deadline);
+			updates.send(world);
+		} finally {
+			StructureMetrics.exit(previous);
+			HangingEntities.exit(previousHanging);
+		}
+		stats.addTime(StructureMetrics.Phase.PLACE, System.nanoTime() - start - stats.getTime(StructureMetrics.Phase.HOOKS));
+		metrics.record(stats);
+		if (!finished && isFinished()) {
+			release();
+			if (!cancelled) {
+				bounds = StructureIndex.get(world).add(structure, posX, posY, posZ, rotations);
+				metrics.addPlacement();
+			}
+		}
+		return stats.written;
+	}
+
+	private int placeBlocks(int maxBlocks, long deadline) {
+		int placed = 0;
+		int widthX = structure.getWidthX(), widthZ = structure.getWidthZ();
+		while (!isFinished()) {
+			int j = posY + cursorY;
+			if (j >= 0 && j < world.getHeight()) {
+				while (cursorX < widthX) {
+					while (cursorZ < widthZ) {
+						if (placed >= maxBlocks || ((processed & 63) == 63 && System.nanoTime() > deadline) || cancelled) {
+							return placed;
+						}
+						int index = structure.getPaletteIndex(cursorX, cursorY, cursorZ);
+						if (index != PackedStructure.EMPTY) {
+							try {
+								placeBlock(structure.getTuple(index), j);
+							} catch (IOException e) {
+								// without a journal the job could never be undone, so don't place anything more
+								e.printStackTrace();
+								cancel();
+								return placed;
+							} catch (IllegalStateException e) {
+								// the journal was closed or discarded while the job was still running
+								e.printStackTrace();
+								cancel();
+								return placed;
+							}
+							++placed;
+						}
+						++cursorZ;
+						++processed;
+					}
+					cursorZ = 0;
+					++cursorX;
+				}
+			} else {
+				processed += widthX * widthZ;
+			}
+			// layer complete: now that all of its blocks exist, its hooks can run
+			long hooksStart = System.nanoTime();
+			stats.hooks += layerHooks.size();
+			layerHooks.run(generator, world);
+			stats.addTime(StructureMetrics.Phase.HOOKS, System.nanoTime() - hooksStart);
+			cursorX = 0;
+			++cursorY;
+			if (System.nanoTime() > deadline) {
+				break;
+			}
+		}
+		return placed;
+	}
+
+	private void placeBlock(int[] tuple, int j) throws IOException {
+		int i = posX + BlockRotation.rotateX(cursorX, cursorZ, rotations);
+		int k = posZ + BlockRotation.rotateZ(cursorX, cursorZ, rotations);
+		int blockID = tuple[0];
+		if (blockID >= StructurePlacer.FIRST_HOOK_ID) {
+			layerHooks.add(i, j, k, blockID, tuple[2], tuple[3]);
+			blockID = generator.getRealBlockID(blockID, tuple[2]);
+		}
+		if (journal != null) {
+			journal.record(world, i, j, k);
+		}
+		// flag 1 only: notify neighbors but don't send the block to clients, see updates
+		if (world.setBlock(i, j, k, blockID, BlockRotation.rotateMetadata(blockID, tuple[1], rotations), 1)) {
+			updates.add(i, j, k);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package coolalias.structuregen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+
+/**
+ * Remembers where every structure was generated: the bounding box of each placed structure,
+ * after rotation, filed under every chunk it overlaps. Finding the structures at a position
+ * is then one map lookup plus a box check for the few structures in that chunk, cheap enough
+ * for events that fire all the time, such as mob spawning:
+ *
+ * @ForgeSubscribe
+ * public void onCheckSpawn(LivingSpawnEvent.CheckSpawn event) {
+ *     if (StructureIndex.get(event.world).isInStructure(MathHelper.floor_double(event.x), MathHelper.floor_double(event.y), MathHelper.floor_double(event.z))) {
+ *         event.setResult(Result.DENY);
+ *     }
+ * }
+ *
+ * StructurePlacer, StructureGenerationJob and StructureWorldGenerator add every structure they
+ * place. There is one index per world (dimension), stored with the world's other saved data.
+ *
+ * Only used from the server thread.
+ */
+public class StructureIndex extends WorldSavedData
+{
+	private static final String NAME = "StructureIndex";
+
+	/** Every structure in the index, in the order added */
+	private final List<Bounds> structures = new ArrayList<Bounds>();
+
+	/** Structures overlapping each chunk, by chunk coordinates */
+	private final Map<Long, List<Bounds>> chunks = new HashMap<Long, List<Bounds>>();
+
+	/** Stamp of the current structuresIntersecting query, so structures in several chunks are only added once */
+	private int query;
+
+	public StructureIndex(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns the index for the world, loading it or creating an empty one the first time
+	 */
+	public static StructureIndex get(World world) {
+		StructureIndex data = (StructureIndex) world.perWorldStorage.loadData(StructureIndex.class, NAME);
+		if (data == null) {
+			data = new StructureIndex(NAME);
+			world.perWorldStorage.setData(NAME, data);
+		}
+		return data;
+	}
+
+	/**
+	 * Adds the structure, placed with its array origin at posX/posY/posZ after rotating it
+	 * clockwise the given number of times, and returns its bounds. Placing the same structure
+	 * in the same place again, e.g. a DIFF rebuild, doesn't add it twice: the bounds already in
+	 * the index are returned instead.
+	 * @param name May be null, e.g. for structures loaded from a file with no name
+	 */
+	public Bounds add(String name, int widthX, int height, int widthZ, int posX, int posY, int posZ, int rotations) {
+		// the opposite corners of the array end up at opposite corners of the box
+		int x1 = posX + BlockRotation.rotateX(0, 0, rotations), x2 = posX + BlockRotation.rotateX(widthX - 1, widthZ - 1, rotations);
+		int z1 = posZ + BlockRotation.rotateZ(0, 0, rotations), z2 = posZ + BlockRotation.rotateZ(widthX - 1, widthZ - 1, rotations);
+		return add(new Bounds(name, Math.min(x1, x2), posY, Math.min(z1, z2), Math.max(x1, x2), posY + height - 1, Math.max(z1, z2)));
+	}
+
+	/** As above, using the structure's name and size */
+	public Bounds add(PackedStructure structure, int posX, int posY, int posZ, int rotations) {
+		return add(structure.name, structure.getWidthX(), structure.getHeight(), structure.getWidthZ(), posX, posY, posZ, rotations);
+	}
+
+	private Bounds add(Bounds bounds) {
+		// an identical structure is filed under every chunk this one overlaps, so one is enough to check
+		List<Bounds> existing = chunks.get(ChunkCoordIntPair.chunkXZ2Int(bounds.minX >> 4, bounds.minZ >> 4));
+		if (existing != null) {
+			for (int n = 0; n < existing.size(); ++n) {
+				if (existing.get(n).isSameAs(bounds)) {
+					return existing.get(n);
+				}
+			}
+		}
+		structures.add(bounds);
+		for (int chunkX = bounds.minX >> 4; chunkX <= bounds.maxX >> 4; ++chunkX) {
+			for (int chunkZ = bounds.minZ >> 4; chunkZ <= bounds.maxZ >> 4; ++chunkZ) {
+				Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+				List<Bounds> list = chunks.get(key);
+				if (list == null) {
+					list = new ArrayList<Bounds>(1);
+					chunks.put(key, list);
+				}
+				list.add(bounds);
+			}
+		}
+		markDirty();
+		return bounds;
+	}
+
+	/**
+	 * Removes the structure from the index, e.g. after undoing its placement; returns false
+	 * if it wasn't in the index
+	 */
+	public boolean remove(Bounds bounds) {
+		if (!structures.remove(bounds)) {
+			return false;
+		}
+		for (int chunkX = bounds.minX >> 4; chunkX <= bounds.maxX >> 4; ++chunkX) {
+			for (int chunkZ = bounds.minZ >> 4; chunkZ <= bounds.maxZ >> 4; ++chunkZ) {
+				Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+				List<Bounds> list = chunks.get(key);
+				list.remove(bounds);
+				if (list.isEmpty()) {
+					chunks.remove(key);
+				}
+			}
+		}
+		markDirty();
+		return true;
+	}
+
+	/** Returns the number of structures in the index */
+	public int size() {
+		return structures.size();
+	}
+
+	/** Returns true if x/y/z is inside of any structure's bounding box */
+	public boolean isInStructure(int x, int y, int z) {
+		List<Bounds> list = chunks.get(ChunkCoordIntPair.chunkXZ2Int(x >> 4, z >> 4));
+		if (list != null) {
+			for (int n = 0; n < list.size(); ++n) {
+				if (list.get(n).contains(x, y, z)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/** Returns every structure whose bounding box contains x/y/z, oldest first */
+	public List<Bounds> structuresAt(int x, int y, int z) {
+		List<Bounds> list = chunks.get(ChunkCoordIntPair.chunkXZ2Int(x >> 4, z >> 4));
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		List<Bounds> found = new ArrayList<Bounds>(1);
+		for (int n = 0; n < list.size(); ++n) {
+			if (list.get(n).contains(x, y, z)) {
+				found.add(list.get(n));
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns every structure whose bounding box overlaps the box, e.g. an entity's
+	 * boundingBox; each block of a structure covers the unit cube from its coordinates
+	 */
+	public List<Bounds> structuresIntersecting(AxisAlignedBB box) {
+		List<Bounds> found = new ArrayList<Bounds>();
+		int minChunkX = floor(box.minX) >> 4, maxChunkX = floor(box.maxX) >> 4;
+		int minChunkZ = floor(box.minZ) >> 4, maxChunkZ = floor(box.maxZ) >> 4;
+		if ((long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1) > structures.size()) {
+			// a box this big covers more chunks than there are structures
+			for (Bounds bounds : structures) {
+				if (bounds.intersects(box)) {
+					found.add(bounds);
+				}
+			}
+			return found;
+		}
+		++query;
+		for (int chunkX = minChunkX; chunkX <= maxChunkX; ++chunkX) {
+			for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; ++chunkZ) {
+				List<Bounds> list = chunks.get(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+				if (list == null) {
+					continue;
+				}
+				for (int n = 0; n < list.size(); ++n) {
+					Bounds bounds = list.get(n);
+					if (bounds.query != query && bounds.intersects(box)) {
+						bounds.query = query;
+						found.add(bounds);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private static int floor(double value) {
+		int i = (int) value;
+		return (value < i ? i - 1 : i);
+	}
+
+	@Override
+	public void readFromNBT(NBTTagCompound compound) {
+		structures.clear();
+		chunks.clear();
+		NBTTagList list = compound.getTagList("Structures");
+		for (int i = 0; i < list.tagCount(); ++i) {
+			NBTTagCompound tag = (NBTTagCompound) list.tagAt(i);
+			int[] box = tag.getIntArray("Box");
+			add(new Bounds(tag.hasKey("Name") ? tag.getString("Name") : null, box[0], box[1], box[2], box[3], box[4], box[5]));
+		}
+	}
+
+	@Override
+	public void writeToNBT(NBTTagCompound compound) {
+		NBTTagList list = new NBTTagList();
+		for (Bounds bounds : structures) {
+			NBTTagCompound tag = new NBTTagCompound();
+			if (bounds.name != null) {
+				tag.setString("Name", bounds.name);
+			}
+			tag.setIntArray("Box", new int[] {bounds.minX, bounds.minY, bounds.minZ, bounds.maxX, bounds.maxY, bounds.maxZ});
+			list.appendTag(tag);
+		}
+		compound.setTag("Structures", list);
+	}
+
+	/**
+	 * Name and bounding box of a placed structure; all coordinates are inclusive
+	 */
+	public static final class Bounds
+	{
+		/** Name of the structure, or null if it had none */
+		public final String name;
+
+		public final int minX, minY, minZ, maxX, maxY, maxZ;
+
+		/** Last structuresIntersecting query that found this structure */
+		private int query;
+
+		private Bounds(String name, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+			this.name = name;
+			this.minX = minX;
+			this.minY = minY;
+			this.minZ = minZ;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			this.maxZ = maxZ;
+		}
+
+		public boolean contains(int x, int y, int z) {
+			return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+		}
+
+		/** Returns true if the other bounds have the same name and box */
+		private boolean isSameAs(Bounds other) {
+			return (name == null ? other.name == null : name.equals(other.name)) && minX == other.minX && minY == other.minY && minZ == other.minZ
+					&& maxX == other.maxX && maxY == other.maxY && maxZ == other.maxZ;
+		}
+
+		public boolean intersects(AxisAlignedBB box) {
+			return box.maxX > minX && box.minX < maxX + 1 && box.maxY > minY && box.minY < maxY + 1 && box.maxZ > minZ && box.minZ < maxZ + 1;
+		}
+
+		@Override
+		public String toString() {
+			return (name == null ? "Structure" : name) + " [" + minX + ", " + minY + ", " + minZ + " to " + maxX + ", " + maxY + ", " + maxZ + "]";
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package coolalias.structuregen;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes identical parts of block arrays share a single instance: every {id, meta, ...} entry,
+ * every row of z entries and every y layer with the same contents as one seen before is
+ * replaced by that earlier one. Copy-pasted layers (like the three identical layers in
+ * StructureArrayTutorialPart1) and repeated rows in walls, floors and towers then take up
+ * memory only once, across every structure passed through the same interner.
+ *
+ * Arrays are interned in place, so even arrays held in static fields shrink. Afterwards the
+ * shared parts must never be changed, as a change would show up everywhere they are used.
+ *
+ * Each part is looked up by a hash of its contents; since the parts inside it were already
+ * interned, two parts are equal when they hold the very same instances, so no part is ever
+ * compared deeper than one level. Use one interner while loading structures, then let it go:
+ *
+ * StructureInterner interner = new StructureInterner();
+ * interner.intern(structure);
+ * interner.intern(StructureArrayTutorial.blockArrayTutorial);
+ */
+public class StructureInterner
+{
+	private final Map<TupleKey, int[]> tuples = new HashMap<TupleKey, int[]>();
+	private final Map<ArrayKey, int[][]> columns = new HashMap<ArrayKey, int[][]>();
+	private final Map<ArrayKey, int[][][]> layers = new HashMap<ArrayKey, int[][][]>();
+
+	/** Content hash of every shared instance, so parents can hash without looking inside */
+	private final Map<Object, Integer> hashes = new IdentityHashMap<Object, Integer>();
+
+	/** Number of entries, rows and layers interned in total, shared or not */
+	private int tuplesSeen, columnsSeen, layersSeen;
+
+	/**
+	 * Interns every layer of the array in place and returns the same array
+	 */
+	public synchronized int[][][][] intern(int[][][][] blocks) {
+		for (int y = 0; y < blocks.length; ++y) {
+			blocks[y] = internLayer(blocks[y]);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Interns every block array of the structure in place and returns the structure
+	 */
+	public Structure intern(Structure structure) {
+		List<int[][][][]> arrays = structure.blockArrayList();
+		for (int[][][][] blocks : arrays) {
+			intern(blocks);
+		}
+		return structure;
+	}
+
+	private int[][][] internLayer(int[][][] layer) {
+		if (layer == null) {
+			return null;
+		}
+		++layersSeen;
+		int hash = 1;
+		for (int x = 0; x < layer.length; ++x) {
+			layer[x] = internColumn(layer[x]);
+			hash = 31 * hash + hashOf(layer[x]);
+		}
+		ArrayKey key = new ArrayKey(layer, hash);
+		int[][][] shared = layers.get(key);
+		if (shared == null) {
+			layers.put(key, layer);
+			hashes.put(layer, hash);
+			shared = layer;
+		}
+		return shared;
+	}
+
+	private int[][] internColumn(int[][] column) {
+		if (column == null) {
+			return null;
+		}
+		++columnsSeen;
+		int hash = 1;
+		for (int z = 0; z < column.length; ++z) {
+			column[z] = internTuple(column[z]);
+			hash = 31 * hash + hashOf(column[z]);
+		}
+		ArrayKey key = new ArrayKey(column, hash);
+		int[][] shared = columns.get(key);
+		if (shared == null) {
+			columns.put(key, column);
+			hashes.put(column, hash);
+			shared = column;
+		}
+		return shared;
+	}
+
+	private int[] internTuple(int[] tuple) {
+		if (tuple == null) {
+			return null;
+		}
+		++tuplesSeen;
+		TupleKey key = new TupleKey(tuple);
+		int[] shared = tuples.get(key);
+		if (shared == null) {
+			tuples.put(key, tuple);
+			hashes.put(tuple, key.hash);
+			shared = tuple;
+		}
+		return shared;
+	}
+
+	private int hashOf(Object shared) {
+		Integer hash = (shared == null ? null : hashes.get(shared));
+		return (hash == null ? 0 : hash.intValue());
+	}
+
+	/** Returns the number of different layers seen; getLayersSeen() - this many were shared */
+	public synchronized int getUniqueLayers() {
+		return layers.size();
+	}
+
+	public synchronized int getLayersSeen() {
+		return layersSeen;
+	}
+
+	/** Returns the number of different rows of z entries seen */
+	public synchronized int getUniqueColumns() {
+		return columns.size();
+	}
+
+	public synchronized int getColumnsSeen() {
+		return columnsSeen;
+	}
+
+	/** Returns the number of different {id, meta, ...} entries seen */
+	public synchronized int getUniqueTuples() {
+		return tuples.size();
+	}
+
+	public synchronized int getTuplesSeen() {
+		return tuplesSeen;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "StructureInterner[layers " + layers.size() + "/" + layersSeen + ", columns " + columns.size() + "/" + columnsSeen
+				+ ", blocks " + tuples.size() + "/" + tuplesSeen + "]";
+	}
+
+	/** Entries are equal if they have the same values */
+	private static final class TupleKey
+	{
+		private final int[] tuple;
+		private final int hash;
+
+		private TupleKey(int[] tuple) {
+			this.tuple = tuple;
+			this.hash = Arrays.hashCode(tuple);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof TupleKey && Arrays.equals(tuple, ((TupleKey) obj).tuple);
+		}
+	}
+
+	/** Rows and layers are equal if they hold the same (already interned) instances */
+	private static final class ArrayKey
+	{
+		private final Object[] array;
+		private final int hash;
+
+		private ArrayKey(Object[] array, int hash) {
+			this.array = array;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ArrayKey)) {
+				return false;
+			}
+			Object[] other = ((ArrayKey) obj).array;
+			if (other.length != array.length) {
+				return false;
+			}
+			for (int n = 0; n < array.length; ++n) {
+				if (other[n] != array[n]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
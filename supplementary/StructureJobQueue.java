@@ -0,0 +1,176 @@
+package coolalias.structuregen;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import cpw.mods.fml.common.ITickHandler;
+import cpw.mods.fml.common.TickType;
+
+/**
+ * Runs queued StructureGenerationJobs at the end of each server tick, spending no more than
+ * the configured time and number of blocks per tick across all jobs.
+ *
+ * Register it once on the server side, e.g. in your CommonProxy:
+ *
+ * TickRegistry.registerTickHandler(YourMod.jobQueue, Side.SERVER);
+ *
+ * and then, instead of calling YourMod.gen.generate(...) from onBlockActivated:
+ *
+ * YourMod.jobQueue.add(new StructureGenerationJob(world, packed, YourMod.gen, x, y, z, rotations));
+ */
+public class StructureJobQueue implements ITickHandler
+{
+	/** Jobs waiting to be finished, in the order they were added */
+	private final ConcurrentLinkedQueue<StructureGenerationJob> jobs = new ConcurrentLinkedQueue<StructureGenerationJob>();
+
+	/** Maximum time in nanoseconds spent generating structures each tick */
+	private long tickBudgetNanos;
+
+	/** Maximum number of blocks placed each tick */
+	private int tickBudgetBlocks;
+
+	/** Undo journals by job id, oldest first; only the most recent maxJournals are kept */
+	private final LinkedHashMap<Integer, StructureGenerationJob> undoable = new LinkedHashMap<Integer, StructureGenerationJob>();
+
+	private int maxJournals = 16;
+
+	/**
+	 * @param tickBudgetMillis Maximum time spent each tick; a tick lasts 50 milliseconds in total
+	 * @param tickBudgetBlocks Maximum number of blocks placed each tick
+	 */
+	public StructureJobQueue(int tickBudgetMillis, int tickBudgetBlocks) {
+		setBudget(tickBudgetMillis, tickBudgetBlocks);
+	}
+
+	public final void setBudget(int tickBudgetMillis, int tickBudgetBlocks) {
+		this.tickBudgetNanos = tickBudgetMillis * 1000000L;
+		this.tickBudgetBlocks = tickBudgetBlocks;
+	}
+
+	/** Adds the job to the end of the queue; returns the job for convenience */
+	public StructureGenerationJob add(StructureGenerationJob job) {
+		jobs.add(job);
+		return job;
+	}
+
+	/**
+	 * Adds the job to the end of the queue, recording everything it overwrites if recordUndo
+	 * is true so that it can later be reverted with undo(jobID); the journals of the most
+	 * recent jobs are kept, see setMaxJournals. Journals of jobs still running are never
+	 * discarded, so more may be kept while many undoable jobs are queued.
+	 */
+	public StructureGenerationJob add(StructureGenerationJob job, boolean recordUndo) throws IOException {
+		if (recordUndo) {
+			job.setJournal(new UndoJournal());
+			synchronized (undoable) {
+				undoable.put(job.jobID, job);
+				Iterator<StructureGenerationJob> iterator = undoable.values().iterator();
+				while (undoable.size() > maxJournals && iterator.hasNext()) {
+					StructureGenerationJob oldest = iterator.next();
+					if (oldest.isFinished()) {
+						oldest.getJournal().discard();
+						iterator.remove();
+					}
+				}
+			}
+		}
+		return add(job);
+	}
+
+	/** Sets how many of the most recent jobs can be undone */
+	public void setMaxJournals(int maxJournals) {
+		this.maxJournals = maxJournals;
+	}
+
+	/**
+	 * Cancels the job if it is still running and puts back everything it has placed so far,
+	 * using the placer's chunk-batched path, and removes it from the StructureIndex if it had
+	 * finished; must be called on the server thread. Returns false if the job wasn't added
+	 * with recordUndo or is too old to be undone.
+	 */
+	public boolean undo(int jobID, StructurePlacer placer) throws IOException {
+		StructureGenerationJob job;
+		synchronized (undoable) {
+			job = undoable.remove(jobID);
+		}
+		if (job == null) {
+			return false;
+		}
+		job.cancel();
+		jobs.remove(job);
+		job.getJournal().undo(job.getWorld(), placer);
+		if (job.getBounds() != null) {
+			StructureIndex.get(job.getWorld()).remove(job.getBounds());
+		}
+		return true;
+	}
+
+	/** Returns the queued job with the given id, or null if it has already finished */
+	public StructureGenerationJob getJob(int jobID) {
+		for (StructureGenerationJob job : jobs) {
+			if (job.jobID == jobID) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+	/** Cancels the job with the given id, returning false if no such job is queued */
+	public boolean cancel(int jobID) {
+		StructureGenerationJob job = getJob(jobID);
+		if (job != null) {
+			job.cancel();
+		}
+		return job != null;
+	}
+
+	/** Returns the number of jobs that are not yet finished */
+	public int size() {
+		return jobs.size();
+	}
+
+	@Override
+	public void tickStart(EnumSet<TickType> type, Object... tickData) {}
+
+	@Override
+	public void tickEnd(EnumSet<TickType> type, Object... tickData) {
+		long deadline = System.nanoTime() + tickBudgetNanos;
+		int blocksLeft = tickBudgetBlocks;
+		Iterator<StructureGenerationJob> iterator = jobs.iterator();
+		while (iterator.hasNext() && blocksLeft > 0 && System.nanoTime() < deadline) {
+			StructureGenerationJob job = iterator.next();
+			if (!job.isFinished()) {
+				blocksLeft -= job.generate(blocksLeft, deadline);
+			}
+			if (job.isFinished()) {
+				iterator.remove();
+				job.release();
+				closeJournal(job);
+			}
+		}
+	}
+
+	/** Writes out the rest of a finished job's journal so it holds no more memory than needed */
+	private static void closeJournal(StructureGenerationJob job) {
+		if (job.getJournal() != null) {
+			try {
+				job.getJournal().close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public EnumSet<TickType> ticks() {
+		return EnumSet.of(TickType.SERVER);
+	}
+
+	@Override
+	public String getLabel() {
+		return "StructureJobQueue";
+	}
+}
@@ -0,0 +1,352 @@
+package coolalias.structuregen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running totals of what generating each structure has cost: how often it was placed, blocks
+ * placed and skipped, hooks run (also per hook id), inventories filled, entities spawned and
+ * the time spent in each Phase. StructurePlacer and StructureGenerationJob record into these
+ * automatically, by structure name; hooks add their own inventory and entity counts to
+ * StructureMetrics.current().
+ *
+ * Counts are recorded once per placement (or per batch of blocks), never per block, and each
+ * counter is split into stripes so threads adding to it at the same time don't contend, so
+ * recording can be left on all the time. See StructureMetricsCommand to view them in game,
+ * or scheduleCsvDump to write them to a file every so often.
+ */
+public class StructureMetrics
+{
+	/** The parts of placing a structure that are timed */
+	public static enum Phase {
+		/** Planning the placement, e.g. StructurePlanner.plan */
+		PREPARE,
+		/** Writing blocks to the world, and in SAFE mode or jobs all of their side effects */
+		PLACE,
+		/** Running custom hooks */
+		HOOKS,
+		/** Relighting chunks after blocks were written directly to them */
+		RELIGHT;
+
+		private static final Phase[] PHASES = values();
+	}
+
+	/** Name used for placements that can't be tied to a structure, e.g. a PlacementPlan applied on its own */
+	public static final String UNKNOWN = "(unknown)";
+
+	private static final int PLACEMENTS = 0, BLOCKS_PLACED = 1, BLOCKS_SKIPPED = 2, HOOKS = 3, INVENTORIES_FILLED = 4, ENTITIES_SPAWNED = 5;
+
+	/** Index of the first phase time; phases follow in order */
+	private static final int TIMES = 6;
+
+	private static final int COUNTERS = TIMES + Phase.PHASES.length;
+
+	/** Counters per stripe, padded to a whole number of 64-byte cache lines */
+	private static final int STRIDE = (COUNTERS + 7) & ~7;
+
+	/** Power of two of at least twice the number of processors */
+	private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1);
+
+	private static final ConcurrentHashMap<String, StructureMetrics> metrics = new ConcurrentHashMap<String, StructureMetrics>();
+
+	/** Metrics of the structure whose blocks or hooks are being placed on each thread */
+	private static final ThreadLocal<StructureMetrics> current = new ThreadLocal<StructureMetrics>();
+
+	public final String name;
+
+	/** All counters, STRIDE per stripe */
+	private final AtomicLongArray counters = new AtomicLongArray(STRIDE * STRIPES);
+
+	/**
+	 * Number of times each hook ran, in blocks of 64 ids indexed by (fakeID - FIRST_HOOK_ID) / 64;
+	 * growing only copies the blocks themselves, so no count is ever lost
+	 */
+	private volatile AtomicLongArray[] hookCounts = new AtomicLongArray[0];
+
+	private StructureMetrics(String name) {
+		this.name = name;
+	}
+
+	/** Returns the metrics for the named structure, creating them if needed; a null name gives UNKNOWN */
+	public static StructureMetrics get(String name) {
+		if (name == null) {
+			name = UNKNOWN;
+		}
+		StructureMetrics result = metrics.get(name);
+		if (result == null) {
+			result = new StructureMetrics(name);
+			StructureMetrics existing = metrics.putIfAbsent(name, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+
+	/** Returns the metrics of every structure recorded so far, most time spent first */
+	public static List<StructureMetrics> getAll() {
+		List<StructureMetrics> all = new ArrayList<StructureMetrics>(metrics.values());
+		Collections.sort(all, new Comparator<StructureMetrics>() {
+			@Override
+			public int compare(StructureMetrics a, StructureMetrics b) {
+				long timeA = a.getTotalTime(), timeB = b.getTotalTime();
+				return (timeA < timeB ? 1 : timeA > timeB ? -1 : a.name.compareTo(b.name));
+			}
+		});
+		return all;
+	}
+
+	/**
+	 * Forgets everything recorded so far; the counters are zeroed in place, so jobs holding on
+	 * to a structure's metrics keep recording into the ones shown
+	 */
+	public static void resetAll() {
+		for (StructureMetrics m : metrics.values()) {
+			m.reset();
+		}
+	}
+
+	/** Zeroes every counter, including those of each hook */
+	private void reset() {
+		for (int n = 0; n < counters.length(); ++n) {
+			counters.set(n, 0);
+		}
+		for (AtomicLongArray block : hookCounts) {
+			for (int n = 0; n < block.length(); ++n) {
+				block.set(n, 0);
+			}
+		}
+	}
+
+	/**
+	 * Returns the metrics of the structure being placed on this thread, for hooks to add to,
+	 * or those for UNKNOWN if nothing is being placed
+	 */
+	public static StructureMetrics current() {
+		StructureMetrics result = current.get();
+		return (result == null ? get(UNKNOWN) : result);
+	}
+
+	/**
+	 * Makes 'metrics' current on this thread and returns whatever was current before, which
+	 * must be passed to exit once done, in a finally block
+	 */
+	static StructureMetrics enter(StructureMetrics metrics) {
+		StructureMetrics previous = current.get();
+		current.set(metrics);
+		return previous;
+	}
+
+	/** Restores the metrics returned from enter */
+	static void exit(StructureMetrics previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	/** Counts one placement of the structure, however many batches or slices it took */
+	public void addPlacement() {
+		add(PLACEMENTS, 1);
+	}
+
+	/** Adds the blocks, hooks and phase times from the stats */
+	public void record(PlacementStats stats) {
+		add(BLOCKS_PLACED, stats.written);
+		add(BLOCKS_SKIPPED, stats.skipped);
+		add(HOOKS, stats.hooks);
+		for (int n = 0; n < Phase.PHASES.length; ++n) {
+			add(TIMES + n, stats.times[n]);
+		}
+	}
+
+	/** Adds time in nanoseconds to the phase */
+	public void addTime(Phase phase, long nanos) {
+		add(TIMES + phase.ordinal(), nanos);
+	}
+
+	/** Counts one run of the custom hook; StructurePlacer and StructureGenerationJob do this for you */
+	public void addHook(int fakeID) {
+		int index = fakeID - StructurePlacer.FIRST_HOOK_ID;
+		if (index < 0) {
+			return;
+		}
+		AtomicLongArray[] blocks = hookCounts;
+		if ((index >> 6) >= blocks.length) {
+			blocks = growHookCounts(index >> 6);
+		}
+		blocks[index >> 6].incrementAndGet(index & 63);
+	}
+
+	/** Call from a hook each time it fills a chest or other inventory */
+	public void addInventoryFilled() {
+		add(INVENTORIES_FILLED, 1);
+	}
+
+	/** Call from a hook each time it spawns an entity */
+	public void addEntitySpawned() {
+		add(ENTITIES_SPAWNED, 1);
+	}
+
+	private synchronized AtomicLongArray[] growHookCounts(int block) {
+		AtomicLongArray[] blocks = hookCounts;
+		if (block >= blocks.length) {
+			AtomicLongArray[] grown = new AtomicLongArray[block + 1];
+			System.arraycopy(blocks, 0, grown, 0, blocks.length);
+			for (int n = blocks.length; n < grown.length; ++n) {
+				grown[n] = new AtomicLongArray(64);
+			}
+			hookCounts = grown;
+			blocks = grown;
+		}
+		return blocks;
+	}
+
+	private void add(int counter, long value) {
+		if (value != 0) {
+			int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+			counters.addAndGet(stripe * STRIDE + counter, value);
+		}
+	}
+
+	private long sum(int counter) {
+		long sum = 0;
+		for (int stripe = 0; stripe < STRIPES; ++stripe) {
+			sum += counters.get(stripe * STRIDE + counter);
+		}
+		return sum;
+	}
+
+	public long getPlacements() {
+		return sum(PLACEMENTS);
+	}
+
+	public long getBlocksPlaced() {
+		return sum(BLOCKS_PLACED);
+	}
+
+	public long getBlocksSkipped() {
+		return sum(BLOCKS_SKIPPED);
+	}
+
+	public long getHooksRun() {
+		return sum(HOOKS);
+	}
+
+	public long getInventoriesFilled() {
+		return sum(INVENTORIES_FILLED);
+	}
+
+	public long getEntitiesSpawned() {
+		return sum(ENTITIES_SPAWNED);
+	}
+
+	/** Returns the time spent in the phase, in nanoseconds */
+	public long getTime(Phase phase) {
+		return sum(TIMES + phase.ordinal());
+	}
+
+	/** Returns the time spent in all phases, in nanoseconds */
+	public long getTotalTime() {
+		long total = 0;
+		for (Phase phase : Phase.PHASES) {
+			total += getTime(phase);
+		}
+		return total;
+	}
+
+	/** Returns the number of times the custom hook ran */
+	public long getHookCount(int fakeID) {
+		AtomicLongArray[] blocks = hookCounts;
+		int index = fakeID - StructurePlacer.FIRST_HOOK_ID;
+		return (index >= 0 && (index >> 6) < blocks.length ? blocks[index >> 6].get(index & 63) : 0);
+	}
+
+	/** Returns the counts of every hook that ran, as 'id:count' separated by spaces */
+	public String getHookCounts() {
+		AtomicLongArray[] blocks = hookCounts;
+		StringBuilder counts = new StringBuilder();
+		for (int n = 0; n < blocks.length * 64; ++n) {
+			long count = blocks[n >> 6].get(n & 63);
+			if (count > 0) {
+				counts.append(counts.length() == 0 ? "" : " ").append(n + StructurePlacer.FIRST_HOOK_ID).append(':').append(count);
+			}
+		}
+		return counts.toString();
+	}
+
+	/** Column names for writeCsv, without the trailing line break */
+	public static final String CSV_HEADER = "time,structure,placements,blocks_placed,blocks_skipped,hooks,inventories_filled,entities_spawned,prepare_ms,place_ms,hooks_ms,relight_ms,hook_counts";
+
+	/** Writes one line per structure with its current totals, all stamped with 'time' in ms */
+	public static void writeCsv(Writer out, long time) throws IOException {
+		for (StructureMetrics m : getAll()) {
+			out.write(time + ",\"" + m.name.replace("\"", "\"\"") + "\"," + m.getPlacements() + "," + m.getBlocksPlaced() + ","
+					+ m.getBlocksSkipped() + "," + m.getHooksRun() + "," + m.getInventoriesFilled() + "," + m.getEntitiesSpawned());
+			for (Phase phase : Phase.PHASES) {
+				out.write("," + m.getTime(phase) / 1000000L);
+			}
+			out.write("," + m.getHookCounts() + "\n");
+		}
+	}
+
+	/**
+	 * Appends every structure's totals to the CSV file every 'period' seconds, on a background
+	 * thread, starting with a header if the file is new. Cancel the returned future to stop.
+	 */
+	public static ScheduledFuture<?> scheduleCsvDump(final File file, long period) {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "Structure metrics dump");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(true);
+		executor.setRemoveOnCancelPolicy(true);
+		ScheduledFuture<?> future = executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					boolean header = !file.exists() || file.length() == 0;
+					Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+					try {
+						if (header) {
+							out.write(CSV_HEADER + "\n");
+						}
+						writeCsv(out, System.currentTimeMillis());
+					} finally {
+						out.close();
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, period, period, TimeUnit.SECONDS);
+		// keeps running the dump, but lets the thread end once it is cancelled
+		executor.shutdown();
+		return future;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d placed, %d blocks (%d skipped), %d hooks, prepare %d ms, place %d ms, hooks %d ms, relight %d ms",
+				name, getPlacements(), getBlocksPlaced(), getBlocksSkipped(), getHooksRun(), getTime(Phase.PREPARE) / 1000000L,
+				getTime(Phase.PLACE) / 1000000L, getTime(Phase.HOOKS) / 1000000L, getTime(Phase.RELIGHT) / 1000000L);
+	}
+}
@@ -0,0 +1,106 @@
+package coolalias.structuregen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.util.ChatMessageComponent;
+
+/**
+ * Shows StructureMetrics in game. Register it when the server starts:
+ *
+ * @EventHandler
+ * public void serverStarting(FMLServerStartingEvent event) {
+ *     event.registerServerCommand(new StructureMetricsCommand());
+ * }
+ *
+ * /structuremetrics list [count]   the most expensive structures, 10 unless a count is given
+ * /structuremetrics show <name>    everything recorded for one structure, including each hook id
+ * /structuremetrics reset          forgets everything recorded so far
+ * /structuremetrics dump           writes everything to structure_metrics.csv in the server directory
+ */
+public class StructureMetricsCommand extends CommandBase
+{
+	/** File written by 'dump', relative to the server's working directory */
+	public static final String DUMP_FILE = "structure_metrics.csv";
+
+	@Override
+	public String getCommandName() {
+		return "structuremetrics";
+	}
+
+	@Override
+	public int getRequiredPermissionLevel() {
+		return 3;
+	}
+
+	@Override
+	public String getCommandUsage(ICommandSender sender) {
+		return "/structuremetrics <list [count] | show <name> | reset | dump>";
+	}
+
+	@Override
+	public void processCommand(ICommandSender sender, String[] args) {
+		if (args.length == 0) {
+			throw new WrongUsageException(getCommandUsage(sender));
+		}
+		if (args[0].equals("list")) {
+			List<StructureMetrics> all = StructureMetrics.getAll();
+			int count = (args.length > 1 ? parseIntBounded(sender, args[1], 1, 100) : 10);
+			send(sender, all.size() + " structures recorded" + (all.isEmpty() ? "" : ", most time spent first:"));
+			for (int n = 0; n < count && n < all.size(); ++n) {
+				send(sender, all.get(n).toString());
+			}
+		} else if (args[0].equals("show") && args.length > 1) {
+			StringBuilder name = new StringBuilder(args[1]);
+			for (int n = 2; n < args.length; ++n) {
+				name.append(' ').append(args[n]);
+			}
+			for (StructureMetrics metrics : StructureMetrics.getAll()) {
+				if (metrics.name.equalsIgnoreCase(name.toString())) {
+					send(sender, metrics.toString());
+					send(sender, metrics.getInventoriesFilled() + " inventories filled, " + metrics.getEntitiesSpawned() + " entities spawned");
+					send(sender, "Hooks run by id: " + (metrics.getHooksRun() == 0 ? "none" : metrics.getHookCounts()));
+					return;
+				}
+			}
+			throw new CommandException("No metrics recorded for structure " + name);
+		} else if (args[0].equals("reset")) {
+			StructureMetrics.resetAll();
+			notifyAdmins(sender, "Structure metrics reset");
+		} else if (args[0].equals("dump")) {
+			File file = new File(DUMP_FILE);
+			try {
+				Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+				try {
+					out.write(StructureMetrics.CSV_HEADER + "\n");
+					StructureMetrics.writeCsv(out, System.currentTimeMillis());
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new CommandException("Unable to write " + file.getAbsolutePath());
+			}
+			send(sender, "Structure metrics written to " + file.getAbsolutePath());
+		} else {
+			throw new WrongUsageException(getCommandUsage(sender));
+		}
+	}
+
+	@Override
+	public List addTabCompletionOptions(ICommandSender sender, String[] args) {
+		return (args.length == 1 ? getListOfStringsMatchingLastWord(args, "list", "show", "reset", "dump") : null);
+	}
+
+	private static void send(ICommandSender sender, String message) {
+		sender.sendChatToPlayer(ChatMessageComponent.createFromText(message));
+	}
+}
@@ -0,0 +1,544 @@
+package coolalias.structuregen;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.Packet51MapChunk;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.ChunkPosition;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * Places a PackedStructure in the world, using a StructureGeneratorBase for its custom hooks
+ * (getRealBlockID and onCustomBlockAdded).
+ *
+ * Three modes are available:
+ *
+ * SAFE places every block with world.setBlock, exactly like StructureGeneratorBase does, so
+ * each block triggers its own lighting update, neighbor notifications and client update.
+ * Custom hooks are held back until every block has been placed.
+ *
+ * BATCHED plans the placement with a StructurePlanner, which groups all writes by chunk,
+ * and then writes them straight into each chunk's block storage. Afterwards each touched
+ * chunk is relit once, blocks on the outside of the structure notify their neighbors once,
+ * custom hooks are run and each chunk is sent to watching players in a single packet. This
+ * is many times faster for large structures, but note that Block methods such as
+ * onBlockAdded are NOT called for the blocks placed.
+ *
+ * DIFF works like BATCHED but leaves blocks that are already in place alone; see Mode.DIFF.
+ *
+ * Local block array coordinates are rotated clockwise about the position given, so the
+ * block at x = 0, y = 0, z = 0 in the array is always placed at that position.
+ */
+public class StructurePlacer
+{
+	public static enum Mode {
+		/** Places blocks one at a time through the world, as StructureGeneratorBase does */
+		SAFE,
+		/** Writes blocks directly into chunk storage, then relights and updates once per chunk */
+		BATCHED,
+		/**
+		 * As BATCHED, but first reads each block in the world and only writes those that differ
+		 * in id or metadata; hooks only run where their block had to be placed again. Use this
+		 * to repair or regenerate a structure over an existing copy of itself.
+		 */
+		DIFF
+	}
+
+	/** Custom hook ids start here; anything lower is a real block id */
+	public static final int FIRST_HOOK_ID = 4096;
+
+	/** Layers held in memory at once when placing from a BlockCursor in BATCHED or DIFF mode */
+	private static final int CURSOR_LAYERS_PER_BATCH = 16;
+
+	/** Generator used to resolve and run custom hooks */
+	private final StructureGeneratorBase generator;
+
+	/** Planner used to work out the chunk-grouped writes for BATCHED placement */
+	private final StructurePlanner planner;
+
+	private Mode mode = Mode.BATCHED;
+
+	/** Whether blocks on the outside of the structure notify their neighbors after BATCHED or DIFF placement */
+	private boolean notifyNeighbors = true;
+
+	public StructurePlacer(StructureGeneratorBase generator) {
+		this.generator = generator;
+		this.planner = new StructurePlanner(generator);
+	}
+
+	public final Mode getMode() {
+		return mode;
+	}
+
+	public final StructurePlacer setMode(Mode mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	public final boolean getNotifyNeighbors() {
+		return notifyNeighbors;
+	}
+
+	/**
+	 * Set to false during world generation: notifying a block at a chunk's edge looks up its
+	 * neighbor, which would load or generate the next chunk. Vanilla structures skip neighbor
+	 * updates during generation for the same reason.
+	 */
+	public final StructurePlacer setNotifyNeighbors(boolean notifyNeighbors) {
+		this.notifyNeighbors = notifyNeighbors;
+		return this;
+	}
+
+	/**
+	 * Places the structure with its array origin at posX/posY/posZ after rotating it clockwise
+	 * the given number of times (see BlockRotation.getRotations), and returns the number of
+	 * blocks written, skipped and hooks run
+	 */
+	public PlacementStats place(World world, PackedStructure structure, int posX, int posY, int posZ, int rotations) {
+		return place(world, structure, posX, posY, posZ, rotations, null);
+	}
+
+	/**
+	 * As above, first recording every block and tile entity that gets overwritten in the
+	 * journal, if not null, so the placement can be undone with journal.undo
+	 */
+	public PlacementStats place(World world, PackedStructure structure, int posX, int posY, int posZ, int rotations, UndoJournal journal) {
+		StructureMetrics metrics = StructureMetrics.get(structure.name);
+		StructureMetrics previous = StructureMetrics.enter(metrics);
+		HangingEntities previousHanging = HangingEntities.enter(new HangingEntities());
+		try {
+			PlacementStats stats;
+			if (mode == Mode.SAFE) {
+				stats = placeSafe(world, structure.cursor(), posX, posY, posZ, rotations, journal);
+			} else {
+				long start = System.nanoTime();
+				PlacementPlan plan = planner.plan(structure, posX, posY, posZ, rotations, world.getHeight());
+				long planned = System.nanoTime();
+				stats = applyPlan(world, plan, journal);
+				stats.addTime(StructureMetrics.Phase.PREPARE, planned - start);
+			}
+			if (!world.isRemote) {
+				StructureIndex.get(world).add(structure, posX, posY, posZ, rotations);
+			}
+			metrics.addPlacement();
+			metrics.record(stats);
+			return stats;
+		} finally {
+			StructureMetrics.exit(previous);
+			HangingEntities.exit(previousHanging);
+		}
+	}
+
+	/**
+	 * As above, for a run-length encoded structure; with preserveTerrain set, air in the
+	 * structure is never written to the world in any mode
+	 */
+	public PlacementStats place(World world, RunLengthStructure structure, int posX, int posY, int posZ, int rotations) {
+		StructureMetrics metrics = StructureMetrics.get(structure.name);
+		StructureMetrics previous = StructureMetrics.enter(metrics);
+		HangingEntities previousHanging = HangingEntities.enter(new HangingEntities());
+		try {
+			PlacementStats stats;
+			if (mode == Mode.SAFE) {
+				stats = placeSafe(world, structure.cursor(), posX, posY, posZ, rotations, null);
+			} else {
+				long start = System.nanoTime();
+				PlacementPlan plan = planner.plan(structure, posX, posY, posZ, rotations, world.getHeight());
+				long planned = System.nanoTime();
+				stats = applyPlan(world, plan, null);
+				stats.addTime(StructureMetrics.Phase.PREPARE, planned - start);
+			}
+			if (!world.isRemote) {
+				StructureIndex.get(world).add(structure.name, structure.getWidthX(), structure.getHeight(), structure.getWidthZ(), posX, posY, posZ, rotations);
+			}
+			metrics.addPlacement();
+			metrics.record(stats);
+			return stats;
+		} finally {
+			StructureMetrics.exit(previous);
+			HangingEntities.exit(previousHanging);
+		}
+	}
+
+	/**
+	 * Places the blocks from the cursor, e.g. a StackedArrayCursor over a Structure's block
+	 * arrays, without packing or copying them first. In BATCHED and DIFF mode every 16 layers
+	 * are planned and written together, so only a few layers' worth of blocks is held in
+	 * memory at any time, however tall the structure; as with a whole plan, relighting, custom
+	 * hooks and sending the chunks happen once, after every layer has been written.
+	 *
+	 * A cursor has no name, so this is recorded to StructureMetrics.current().
+	 */
+	public PlacementStats place(World world, BlockCursor cursor, int posX, int posY, int posZ, int rotations) {
+		PlacementStats stats;
+		HangingEntities previousHanging = HangingEntities.enter(new HangingEntities());
+		try {
+			if (mode == Mode.SAFE) {
+				stats = placeSafe(world, cursor, posX, posY, posZ, rotations, null);
+			} else {
+				stats = placeBatches(world, cursor, posX, posY, posZ, rotations);
+			}
+		} finally {
+			HangingEntities.exit(previousHanging);
+		}
+		if (!world.isRemote) {
+			StructureIndex.get(world).add(null, cursor.getWidthX(), cursor.getHeight(), cursor.getWidthZ(), posX, posY, posZ, rotations);
+		}
+		StructureMetrics metrics = StructureMetrics.current();
+		metrics.addPlacement();
+		metrics.record(stats);
+		return stats;
+	}
+
+	/**
+	 * Plans and writes the cursor's blocks CURSOR_LAYERS_PER_BATCH layers at a time; relighting,
+	 * custom hooks and sending the chunks wait until every batch has been written
+	 */
+	private PlacementStats placeBatches(World world, BlockCursor cursor, int posX, int posY, int posZ, int rotations) {
+		long start = System.nanoTime();
+		PlacementStats stats = new PlacementStats();
+		ChunkWrites writes = new ChunkWrites();
+		PlacementPlan.Builder builder = new PlacementPlan.Builder();
+		boolean more = cursor.next();
+		while (more) {
+			more = planner.planCursor(builder, cursor, posX, posY, posZ, rotations, world.getHeight(), cursor.getY() + CURSOR_LAYERS_PER_BATCH);
+			writePlan(world, builder.build(), null, stats, writes);
+			builder.clear();
+		}
+		finishWrites(world, stats, writes);
+		// whatever wasn't spent applying the batches went into reading the cursor and planning
+		long elapsed = System.nanoTime() - start - stats.getTime(StructureMetrics.Phase.HOOKS);
+		stats.addTime(StructureMetrics.Phase.PREPARE, elapsed - stats.getTime(StructureMetrics.Phase.PLACE) - stats.getTime(StructureMetrics.Phase.RELIGHT));
+		return stats;
+	}
+
+	/**
+	 * Applies a plan prepared by StructurePlanner, e.g. on another thread, using DIFF placement
+	 * if that is the current mode or BATCHED placement otherwise; must be called on the server
+	 * thread.
+	 */
+	public PlacementStats apply(World world, PlacementPlan plan) {
+		return apply(world, plan, null);
+	}
+
+	/**
+	 * As above, first recording every block and tile entity that gets overwritten in the
+	 * journal, if not null. Plans don't know which structure they are for, so the stats are
+	 * recorded to StructureMetrics.current().
+	 */
+	public PlacementStats apply(World world, PlacementPlan plan, UndoJournal journal) {
+		PlacementStats stats;
+		HangingEntities previousHanging = HangingEntities.enter(new HangingEntities());
+		try {
+			stats = applyPlan(world, plan, journal);
+		} finally {
+			HangingEntities.exit(previousHanging);
+		}
+		StructureMetrics.current().record(stats);
+		return stats;
+	}
+
+	private PlacementStats applyPlan(World world, PlacementPlan plan, UndoJournal journal) {
+		PlacementStats stats = new PlacementStats();
+		ChunkWrites writes = new ChunkWrites();
+		writePlan(world, plan, journal, stats, writes);
+		finishWrites(world, stats, writes);
+		return stats;
+	}
+
+	/**
+	 * Writes the plan's blocks into chunk storage and notifies neighbors, adding the chunks,
+	 * blocks to relight and custom hooks to run to 'writes' for finishWrites
+	 */
+	private void writePlan(World world, PlacementPlan plan, UndoJournal journal, PlacementStats stats, ChunkWrites writes) {
+		long start = System.nanoTime();
+		boolean diff = (mode == Mode.DIFF);
+		List<PlacementPlan.ChunkGroup> groups = plan.getChunks();
+		// hooks have to be checked before anything is written, or every hook block would match
+		for (int n = 0; n < plan.getHookCount(); ++n) {
+			if (!diff || !isBlockInWorld(world, plan.getHookData(n, 0), plan.getHookData(n, 1), plan.getHookData(n, 2),
+					plan.getHookData(n, 6), plan.getHookData(n, 7))) {
+				writes.hooks.add(plan.getHookData(n, 0), plan.getHookData(n, 1), plan.getHookData(n, 2),
+						plan.getHookData(n, 3), plan.getHookData(n, 4), plan.getHookData(n, 5));
+			}
+		}
+		boolean[][] written = new boolean[groups.size()][];
+		for (int g = 0; g < groups.size(); ++g) {
+			PlacementPlan.ChunkGroup group = groups.get(g);
+			written[g] = new boolean[group.size()];
+			writes.addChunk(group.chunkX, group.chunkZ, writeChunk(world, group, diff, written[g], stats, journal, writes.relight));
+		}
+		for (int g = 0; notifyNeighbors && g < groups.size(); ++g) {
+			notifyNeighbors(world, groups.get(g), written[g]);
+		}
+		stats.addTime(StructureMetrics.Phase.PLACE, System.nanoTime() - start);
+	}
+
+	/**
+	 * Relights each written chunk once, runs the custom hooks now that every block exists and
+	 * sends each chunk's changed sections to watching players in a single packet
+	 */
+	private void finishWrites(World world, PlacementStats stats, ChunkWrites writes) {
+		long start = System.nanoTime();
+		for (int[] chunk : writes.chunks.values()) {
+			world.getChunkFromChunkCoords(chunk[0], chunk[1]).generateSkylightMap();
+		}
+		for (int n = 0; n < writes.relight.size(); n += 3) {
+			world.updateLightByType(EnumSkyBlock.Block, writes.relight.get(n), writes.relight.get(n + 1), writes.relight.get(n + 2));
+		}
+		long hooksStart = System.nanoTime();
+		stats.hooks += writes.hooks.size();
+		writes.hooks.run(generator, world);
+		long hooksEnd = System.nanoTime();
+		for (int[] chunk : writes.chunks.values()) {
+			sendToWatchingPlayers(world, chunk[0], chunk[1], chunk[2]);
+		}
+		stats.addTime(StructureMetrics.Phase.RELIGHT, hooksStart - start);
+		stats.addTime(StructureMetrics.Phase.HOOKS, hooksEnd - hooksStart);
+		stats.addTime(StructureMetrics.Phase.PLACE, System.nanoTime() - hooksEnd);
+	}
+
+	private static boolean isBlockInWorld(World world, int x, int y, int z, int blockID, int meta) {
+		return world.getBlockId(x, y, z) == blockID && world.getBlockMetadata(x, y, z) == meta;
+	}
+
+	/**
+	 * Places the cursor's blocks one at a time, running the custom hooks once all blocks are
+	 * placed; consecutive blocks with the same values, like those of a run, are resolved and
+	 * rotated only once
+	 */
+	private PlacementStats placeSafe(World world, BlockCursor cursor, int posX, int posY, int posZ, int rotations, UndoJournal journal) {
+		long start = System.nanoTime();
+		PlacementStats stats = new PlacementStats();
+		CustomHookRegistry.Batch hooks = new CustomHookRegistry.Batch();
+		int fakeID = -1, fakeMeta = 0, customData1 = 0, blockID = 0, meta = 0;
+		while (cursor.next()) {
+			int j = posY + cursor.getY();
+			if (j < 0 || j >= world.getHeight()) {
+				continue;
+			}
+			if (cursor.getBlockID() != fakeID || cursor.getMetadata() != fakeMeta || cursor.getCustomData1() != customData1) {
+				fakeID = cursor.getBlockID();
+				fakeMeta = cursor.getMetadata();
+				customData1 = cursor.getCustomData1();
+				blockID = (fakeID >= FIRST_HOOK_ID ? generator.getRealBlockID(fakeID, customData1) : fakeID);
+				meta = BlockRotation.rotateMetadata(blockID, fakeMeta, rotations);
+			}
+			int i = posX + BlockRotation.rotateX(cursor.getX(), cursor.getZ(), rotations);
+			int k = posZ + BlockRotation.rotateZ(cursor.getX(), cursor.getZ(), rotations);
+			if (journal != null) {
+				recordBlock(journal, world, i, j, k);
+			}
+			world.setBlock(i, j, k, blockID, meta, 3);
+			++stats.written;
+			if (fakeID >= FIRST_HOOK_ID) {
+				hooks.add(i, j, k, fakeID, customData1, cursor.getCustomData2());
+			}
+		}
+		long placed = System.nanoTime();
+		stats.hooks = hooks.size();
+		hooks.run(generator, world);
+		// setBlock relights as it goes, so that is part of PLACE here
+		stats.addTime(StructureMetrics.Phase.PLACE, placed - start);
+		stats.addTime(StructureMetrics.Phase.HOOKS, System.nanoTime() - placed);
+		return stats;
+	}
+
+	/**
+	 * Writes the group's blocks directly into the chunk's storage; in diff mode, blocks already
+	 * in the world are skipped. Flags each block actually written in 'written', adds those that
+	 * need relighting to 'relight' and returns the bit flags of the sections that changed.
+	 */
+	private static int writeChunk(World world, PlacementPlan.ChunkGroup group, boolean diff, boolean[] written, PlacementStats stats, UndoJournal journal, IntList relight) {
+		Chunk chunk = world.getChunkFromChunkCoords(group.chunkX, group.chunkZ);
+		int sectionMask = writeStorage(chunk.getBlockStorageArray(), chunk, !world.provider.hasNoSky, group, diff, written, stats, journal, relight);
+		if (sectionMask != 0) {
+			chunk.setChunkModified();
+		}
+		return sectionMask;
+	}
+
+	/**
+	 * Does the work of writeChunk on the chunk's block storage array, creating sections as
+	 * needed; 'chunk' is only used for the tile entities of blocks being replaced, so it may be
+	 * null if none of the blocks overwritten can have one, e.g. in StructureBenchmark.
+	 */
+	static int writeStorage(ExtendedBlockStorage[] storage, Chunk chunk, boolean hasSky, PlacementPlan.ChunkGroup group, boolean diff, boolean[] written,
+			PlacementStats stats, UndoJournal journal, IntList relight) {
+		int sectionMask = 0;
+		for (int n = 0; n < group.size(); ++n) {
+			int x = group.getX(n) & 15, y = group.getY(n), z = group.getZ(n) & 15;
+			int blockID = group.getBlockID(n), meta = group.getMetadata(n);
+			ExtendedBlockStorage section = storage[y >> 4];
+			if (section == null) {
+				if (blockID == 0) {
+					++stats.skipped;
+					continue;
+				}
+				section = new ExtendedBlockStorage(y & ~15, hasSky);
+				storage[y >> 4] = section;
+			}
+			int oldID = section.getExtBlockID(x, y & 15, z);
+			int oldMeta = section.getExtBlockMetadata(x, y & 15, z);
+			if (diff && oldID == blockID && oldMeta == meta) {
+				++stats.skipped;
+				continue;
+			}
+			Block old = Block.blocksList[oldID];
+			boolean hasTileEntity = (old != null && old.hasTileEntity(oldMeta));
+			if (journal != null) {
+				TileEntity te = (hasTileEntity ? (TileEntity) chunk.chunkTileEntityMap.get(new ChunkPosition(x, y, z)) : null);
+				recordBlock(journal, group.getX(n), group.getY(n), group.getZ(n), oldID, oldMeta, te);
+			}
+			if (hasTileEntity) {
+				chunk.removeChunkBlockTileEntity(x, y, z);
+			}
+			section.setExtBlockID(x, y & 15, z, blockID);
+			section.setExtBlockMetadata(x, y & 15, z, meta);
+			// blocks that changed how much light they give off or let through, so light is added,
+			// removed, blocked or let through as needed
+			if (Block.lightValue[oldID] != Block.lightValue[blockID] || Block.lightOpacity[oldID] != Block.lightOpacity[blockID]) {
+				relight.add(group.getX(n), group.getY(n));
+				relight.add(group.getZ(n));
+			}
+			sectionMask |= 1 << (y >> 4);
+			written[n] = true;
+			++stats.written;
+		}
+		return sectionMask;
+	}
+
+	/** Records the block in the world at x/y/z in the journal before it is overwritten */
+	private static void recordBlock(UndoJournal journal, World world, int x, int y, int z) {
+		try {
+			journal.record(world, x, y, z);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write undo journal", e);
+		}
+	}
+
+	private static void recordBlock(UndoJournal journal, int x, int y, int z, int blockID, int meta, TileEntity te) {
+		try {
+			journal.record(x, y, z, blockID, meta, te);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write undo journal", e);
+		}
+	}
+
+	/** Notifies blocks around the outside of the structure that their neighbor changed */
+	private static void notifyNeighbors(World world, PlacementPlan.ChunkGroup group, boolean[] written) {
+		for (int n = 0; n < group.size(); ++n) {
+			if (written[n] && group.isSurface(n)) {
+				world.notifyBlockChange(group.getX(n), group.getY(n), group.getZ(n), group.getBlockID(n));
+			}
+		}
+	}
+
+	/** Sends the given sections and their tile entities to every player watching the chunk */
+	static void sendToWatchingPlayers(World world, int chunkX, int chunkZ, int sectionMask) {
+		if (!(world instanceof WorldServer)) {
+			return;
+		}
+		Chunk chunk = world.getChunkFromChunkCoords(chunkX, chunkZ);
+		Packet packet = null;
+		for (Object entity : world.playerEntities) {
+			EntityPlayerMP player = (EntityPlayerMP) entity;
+			if (((WorldServer) world).getPlayerManager().isPlayerWatchingChunk(player, chunkX, chunkZ)) {
+				if (packet == null) {
+					packet = new Packet51MapChunk(chunk, false, sectionMask);
+				}
+				player.playerNetServerHandler.sendPacketToPlayer(packet);
+				for (Object object : chunk.chunkTileEntityMap.values()) {
+					TileEntity te = (TileEntity) object;
+					Packet description = ((sectionMask & (1 << (te.yCoord >> 4))) != 0 ? te.getDescriptionPacket() : null);
+					if (description != null) {
+						player.playerNetServerHandler.sendPacketToPlayer(description);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Everything left to do once a plan's blocks are written: the changed sections of each chunk,
+	 * stored as {chunkX, chunkZ, sectionMask}, the x/y/z of each block to relight and the custom
+	 * hooks to run
+	 */
+	private static final class ChunkWrites
+	{
+		private final Map<Long, int[]> chunks = new LinkedHashMap<Long, int[]>();
+		private final IntList relight = new IntList();
+		private final CustomHookRegistry.Batch hooks = new CustomHookRegistry.Batch();
+
+		private void addChunk(int chunkX, int chunkZ, int sectionMask) {
+			if (sectionMask == 0) {
+				return;
+			}
+			Long key = Long.valueOf(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+			int[] chunk = chunks.get(key);
+			if (chunk == null) {
+				chunks.put(key, new int[] {chunkX, chunkZ, sectionMask});
+			} else {
+				chunk[2] |= sectionMask;
+			}
+		}
+	}
+
+	/**
+	 * Minimal growable int array, so block positions don't need to be boxed
+	 */
+	static final class IntList
+	{
+		private int[] data = new int[64];
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		int get(int index) {
+			return data[index];
+		}
+
+		void add(int value) {
+			if (size == data.length) {
+				int[] grown = new int[data.length * 2];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+			data[size++] = value;
+		}
+
+		void add(int a, int b) {
+			add(a);
+			add(b);
+		}
+
+		void addAll(IntList other) {
+			for (int n = 0; n < other.size; ++n) {
+				add(other.data[n]);
+			}
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		int[] toArray() {
+			int[] array = new int[size];
+			System.arraycopy(data, 0, array, 0, size);
+			return array;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package coolalias.structuregen;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Turns a PackedStructure, a position and a rotation into a PlacementPlan: fake ids are
+ * resolved with getRealBlockID, metadata and positions are rotated, positions outside of the
+ * world's height are dropped and custom hooks are collected for later.
+ *
+ * None of this touches the World, so plans can be prepared on a worker pool while the server
+ * keeps ticking; only StructurePlacer.apply has to run on the server thread. Note that this
+ * means the generator's getRealBlockID must be safe to call from other threads, which it is
+ * as long as it only looks at its arguments, as in the tutorial.
+ *
+ * ForkJoinTask<PlacementPlan> task = planner.submit(packed, x, y, z, rotations, world.getHeight());
+ * // ... some ticks later, on the server thread:
+ * if (task.isDone()) { placer.apply(world, task.join()); }
+ */
+public class StructurePlanner
+{
+	/** Layers per task; larger structures are split and their layers planned in parallel */
+	private static final int LAYERS_PER_TASK = 8;
+
+	/** Ints kept per block of a layer that the next layer repeats: i, k, blockID, meta, surface, and the tuple's id, customData1 and customData2 */
+	private static final int RESOLVED_SIZE = 8;
+
+	private final StructureGeneratorBase generator;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a planner that can only plan on the calling thread, i.e. submit can't be used
+	 */
+	public StructurePlanner(StructureGeneratorBase generator) {
+		this(generator, null);
+	}
+
+	/**
+	 * @param generator Used to resolve custom hook ids; its getRealBlockID must be thread-safe
+	 * @param pool      The pool used by submit, e.g. new ForkJoinPool(2)
+	 */
+	public StructurePlanner(StructureGeneratorBase generator, ForkJoinPool pool) {
+		this.generator = generator;
+		this.pool = pool;
+	}
+
+	/**
+	 * Starts preparing a plan on the worker pool and returns right away
+	 * @throws IllegalStateException if the planner was created without a pool
+	 */
+	public ForkJoinTask<PlacementPlan> submit(PackedStructure structure, int posX, int posY, int posZ, int rotations, int worldHeight) {
+		if (pool == null) {
+			throw new IllegalStateException("no pool");
+		}
+		final LayersTask layers = new LayersTask(structure, posX, posY, posZ, rotations, worldHeight, 0, structure.getHeight());
+		return pool.submit(new RecursiveTask<PlacementPlan>() {
+			@Override
+			protected PlacementPlan compute() {
+				return layers.compute().build();
+			}
+		});
+	}
+
+	/**
+	 * Prepares the plan on the calling thread
+	 */
+	public PlacementPlan plan(PackedStructure structure, int posX, int posY, int posZ, int rotations, int worldHeight) {
+		PlacementPlan.Builder builder = new PlacementPlan.Builder();
+		planLayers(builder, structure, posX, posY, posZ, rotations, worldHeight, 0, structure.getHeight());
+		return builder.build();
+	}
+
+	/**
+	 * Prepares the plan for a run-length encoded structure on the calling thread; each run is
+	 * resolved and rotated once, and skipped runs (see RunLengthStructure.isSkipped) add nothing
+	 */
+	public PlacementPlan plan(RunLengthStructure structure, int posX, int posY, int posZ, int rotations, int worldHeight) {
+		return plan(structure.cursor(), posX, posY, posZ, rotations, worldHeight);
+	}
+
+	/**
+	 * Prepares the plan for every block from the cursor on the calling thread
+	 */
+	public PlacementPlan plan(BlockCursor cursor, int posX, int posY, int posZ, int rotations, int worldHeight) {
+		PlacementPlan.Builder builder = new PlacementPlan.Builder();
+		if (cursor.next()) {
+			planCursor(builder, cursor, posX, posY, posZ, rotations, worldHeight, Integer.MAX_VALUE);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Adds the cursor's blocks and hooks to the builder, starting with its current block, until
+	 * it reaches layer maxY; returns false once the cursor has no blocks left. Consecutive blocks
+	 * with the same values, like those of a run, are resolved and rotated only once.
+	 */
+	boolean planCursor(PlacementPlan.Builder builder, BlockCursor cursor, int posX, int posY, int posZ, int rotations, int worldHeight, int maxY) {
+		int lastX = cursor.getWidthX() - 1, lastY = cursor.getHeight() - 1, lastZ = cursor.getWidthZ() - 1;
+		int fakeID = -1, fakeMeta = 0, customData1 = 0, blockID = 0, meta = 0;
+		do {
+			int x = cursor.getX(), y = cursor.getY(), z = cursor.getZ();
+			if (y >= maxY) {
+				return true;
+			}
+			int j = posY + y;
+			if (j < 0 || j >= worldHeight) {
+				continue;
+			}
+			if (cursor.getBlockID() != fakeID || cursor.getMetadata() != fakeMeta || cursor.getCustomData1() != customData1) {
+				fakeID = cursor.getBlockID();
+				fakeMeta = cursor.getMetadata();
+				customData1 = cursor.getCustomData1();
+				blockID = (fakeID >= StructurePlacer.FIRST_HOOK_ID ? generator.getRealBlockID(fakeID, customData1) : fakeID);
+				meta = BlockRotation.rotateMetadata(blockID, fakeMeta, rotations);
+			}
+			int i = posX + BlockRotation.rotateX(x, z, rotations);
+			int k = posZ + BlockRotation.rotateZ(x, z, rotations);
+			if (fakeID >= StructurePlacer.FIRST_HOOK_ID) {
+				builder.addHook(i, j, k, fakeID, customData1, cursor.getCustomData2(), blockID, meta);
+			}
+			boolean surface = (x == 0 || x == lastX || y == 0 || y == lastY || z == 0 || z == lastZ);
+			builder.addBlock(i, j, k, blockID, meta, surface);
+		} while (cursor.next());
+		return false;
+	}
+
+	/**
+	 * Adds the blocks and hooks for layers minY (inclusive) to maxY (exclusive) to the builder;
+	 * a layer that repeats the one below (see PackedStructure.isRepeatedLayer) reuses that
+	 * layer's resolved ids, metadata and positions instead of working them out again
+	 */
+	private void planLayers(PlacementPlan.Builder builder, PackedStructure structure, int posX, int posY, int posZ,
+			int rotations, int worldHeight, int minY, int maxY) {
+		int lastX = structure.getWidthX() - 1, lastY = structure.getHeight() - 1, lastZ = structure.getWidthZ() - 1;
+		// the resolved blocks of layer 'resolvedY', kept while the layers above repeat it
+		StructurePlacer.IntList resolved = new StructurePlacer.IntList();
+		int resolvedY = -2;
+		for (int y = minY; y < maxY; ++y) {
+			int j = posY + y;
+			if (j < 0 || j >= worldHeight) {
+				continue;
+			}
+			boolean surfaceY = (y == 0 || y == lastY);
+			if (resolvedY == y - 1 && structure.isRepeatedLayer(y)) {
+				// same blocks as the layer below: only the height changes
+				for (int n = 0; n < resolved.size(); n += RESOLVED_SIZE) {
+					int i = resolved.get(n), k = resolved.get(n + 1), blockID = resolved.get(n + 2), meta = resolved.get(n + 3);
+					if (resolved.get(n + 5) >= StructurePlacer.FIRST_HOOK_ID) {
+						builder.addHook(i, j, k, resolved.get(n + 5), resolved.get(n + 6), resolved.get(n + 7), blockID, meta);
+					}
+					builder.addBlock(i, j, k, blockID, meta, surfaceY || resolved.get(n + 4) != 0);
+				}
+				resolvedY = y;
+				continue;
+			}
+			boolean keep = (y + 1 < maxY && structure.isRepeatedLayer(y + 1));
+			resolved.clear();
+			resolvedY = (keep ? y : -2);
+			for (int x = 0; x <= lastX; ++x) {
+				for (int z = 0; z <= lastZ; ++z) {
+					int index = structure.getPaletteIndex(x, y, z);
+					if (index == PackedStructure.EMPTY) {
+						continue;
+					}
+					int[] tuple = structure.getTuple(index);
+					int i = posX + BlockRotation.rotateX(x, z, rotations);
+					int k = posZ + BlockRotation.rotateZ(x, z, rotations);
+					int blockID = (tuple[0] >= StructurePlacer.FIRST_HOOK_ID ? generator.getRealBlockID(tuple[0], tuple[2]) : tuple[0]);
+					int meta = BlockRotation.rotateMetadata(blockID, tuple[1], rotations);
+					if (tuple[0] >= StructurePlacer.FIRST_HOOK_ID) {
+						builder.addHook(i, j, k, tuple[0], tuple[2], tuple[3], blockID, meta);
+					}
+					boolean surfaceXZ = (x == 0 || x == lastX || z == 0 || z == lastZ);
+					builder.addBlock(i, j, k, blockID, meta, surfaceY || surfaceXZ);
+					if (keep) {
+						resolved.add(i, k);
+						resolved.add(blockID, meta);
+						resolved.add(surfaceXZ ? 1 : 0, tuple[0]);
+						resolved.add(tuple[2], tuple[3]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plans a range of layers, splitting it in half until it is small enough; the halves are
+	 * merged bottom-first so the finished plan is in the same order as a single-threaded one
+	 */
+	private final class LayersTask extends RecursiveTask<PlacementPlan.Builder>
+	{
+		private final PackedStructure structure;
+		private final int posX, posY, posZ, rotations, worldHeight, minY, maxY;
+
+		private LayersTask(PackedStructure structure, int posX, int posY, int posZ, int rotations, int worldHeight, int minY, int maxY) {
+			this.structure = structure;
+			this.posX = posX;
+			this.posY = posY;
+			this.posZ = posZ;
+			this.rotations = rotations;
+			this.worldHeight = worldHeight;
+			this.minY = minY;
+			this.maxY = maxY;
+		}
+
+		@Override
+		protected PlacementPlan.Builder compute() {
+			if (maxY - minY <= LAYERS_PER_TASK) {
+				PlacementPlan.Builder builder = new PlacementPlan.Builder();
+				planLayers(builder, structure, posX, posY, posZ, rotations, worldHeight, minY, maxY);
+				return builder;
+			}
+			int middle = (minY + maxY) >>> 1;
+			LayersTask upper = new LayersTask(structure, posX, posY, posZ, rotations, worldHeight, middle, maxY);
+			upper.fork();
+			PlacementPlan.Builder lower = new LayersTask(structure, posX, posY, posZ, rotations, worldHeight, minY, middle).compute();
+			lower.merge(upper.join());
+			return lower;
+		}
+	}
+}
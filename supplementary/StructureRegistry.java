@@ -0,0 +1,229 @@
+package coolalias.structuregen;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replaces the List of structures from StructureArrayTutorialPart2. Each structure gets a
+ * stable integer id in the order it was registered, and can be looked up either by that id
+ * or by name, both in constant time.
+ *
+ * Registering a structure only records where to get it from; its blocks are loaded and packed
+ * the first time it is looked up, so registering thousands of structures costs next to nothing
+ * at startup. Lookups never lock, so world generation, commands and anything else can use the
+ * registry from any thread. Registering should be done during mod loading.
+ */
+public class StructureRegistry
+{
+	/**
+	 * Provides a structure's blocks when it is first needed
+	 */
+	public static interface Source
+	{
+		PackedStructure load() throws IOException;
+	}
+
+	/**
+	 * A source built from block arrays, which StructureValidator checks before they are
+	 * packed, as packing pads out any rows or columns that are too short
+	 */
+	static interface BlockArraySource extends Source
+	{
+		List<int[][][][]> getBlockArrays() throws IOException;
+	}
+
+	/** Name to id index */
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Entries indexed by id. Only replaced (when full) or appended to while holding the lock,
+	 * and always before 'size' is increased, so readers that check 'size' first always see
+	 * a complete entry.
+	 */
+	private volatile Entry[] entries = new Entry[16];
+
+	private volatile int size;
+
+	/**
+	 * Registers the structure under the given name and returns its id
+	 * @throws IllegalArgumentException if the name is already registered
+	 */
+	public synchronized int register(String name, Source source) {
+		if (ids.containsKey(name)) {
+			throw new IllegalArgumentException("Structure " + name + " is already registered");
+		}
+		int id = size;
+		if (id == entries.length) {
+			Entry[] grown = new Entry[id * 2];
+			System.arraycopy(entries, 0, grown, 0, id);
+			entries = grown;
+		}
+		entries[id] = new Entry(name, source);
+		size = id + 1;
+		ids.put(name, id);
+		return id;
+	}
+
+	/**
+	 * Registers a Structure built as in the tutorials; it is packed on first lookup
+	 */
+	public int register(final Structure structure) {
+		return register(structure.name, new BlockArraySource() {
+			@Override
+			public PackedStructure load() {
+				return PackedStructure.fromStructure(structure);
+			}
+
+			@Override
+			public List<int[][][][]> getBlockArrays() {
+				return structure.blockArrayList();
+			}
+		});
+	}
+
+	/**
+	 * Registers a structure stored in a '.struct' file, which is mapped on first lookup
+	 */
+	public int register(String name, File file) {
+		final StructureFile.Handle handle = new StructureFile.Handle(file);
+		return register(name, new Source() {
+			@Override
+			public PackedStructure load() throws IOException {
+				return handle.get();
+			}
+		});
+	}
+
+	/**
+	 * Registers a structure file packaged as a resource, e.g. in your mod's jar; the resource
+	 * is read relative to 'owner' as with Class.getResourceAsStream on first lookup
+	 */
+	public int registerResource(String name, final Class<?> owner, final String path) {
+		return register(name, new Source() {
+			@Override
+			public PackedStructure load() throws IOException {
+				InputStream in = owner.getResourceAsStream(path);
+				if (in == null) {
+					throw new FileNotFoundException("Structure resource " + path + " not found");
+				}
+				try {
+					return StructureFile.read(new BufferedInputStream(in), path);
+				} finally {
+					in.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Registers a block array stored in a static field, such as
+	 * StructureArrayTutorial.blockArrayTutorial, without loading the class that holds it.
+	 * The class, and with it all of its arrays, is only loaded when the structure is first
+	 * looked up.
+	 */
+	public int register(final String name, final String className, final String fieldName, final int facing) {
+		return register(name, new BlockArraySource() {
+			@Override
+			public PackedStructure load() throws IOException {
+				return PackedStructure.fromCursor(name, facing, new StackedArrayCursor(getBlockArrays().get(0)));
+			}
+
+			@Override
+			public List<int[][][][]> getBlockArrays() throws IOException {
+				try {
+					int[][][][] blocks = (int[][][][]) Class.forName(className).getField(fieldName).get(null);
+					return Collections.singletonList(blocks);
+				} catch (Exception e) {
+					throw new IOException("Unable to load block array " + className + "." + fieldName, e);
+				}
+			}
+		});
+	}
+
+	/** Returns the id of the named structure, or -1 if it isn't registered */
+	public int getID(String name) {
+		Integer id = ids.get(name);
+		return (id == null ? -1 : id.intValue());
+	}
+
+	/** Returns the name of the structure with the given id */
+	public String getName(int id) {
+		return getEntry(id).name;
+	}
+
+	/** Returns the number of structures registered; valid ids run from 0 to size() - 1 */
+	public int size() {
+		return size;
+	}
+
+	/** Returns true if the structure has been looked up and loaded already */
+	public boolean isLoaded(int id) {
+		return getEntry(id).structure != null;
+	}
+
+	/**
+	 * Returns the structure with the given id, loading it if this is the first lookup; its
+	 * name is always the one it was registered under
+	 * @throws IndexOutOfBoundsException if no structure has that id
+	 */
+	public PackedStructure get(int id) throws IOException {
+		return getEntry(id).get();
+	}
+
+	/**
+	 * Returns the named structure, loading it if this is the first lookup, or null if no
+	 * structure by that name is registered
+	 */
+	public PackedStructure get(String name) throws IOException {
+		int id = getID(name);
+		return (id < 0 ? null : get(id));
+	}
+
+	/** Returns where the structure with the given id is loaded from */
+	Source getSource(int id) {
+		return getEntry(id).source;
+	}
+
+	private Entry getEntry(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("No structure registered with id " + id);
+		}
+		return entries[id];
+	}
+
+	private static final class Entry
+	{
+		private final String name;
+		private final Source source;
+		private volatile PackedStructure structure;
+
+		private Entry(String name, Source source) {
+			this.name = name;
+			this.source = source;
+		}
+
+		private PackedStructure get() throws IOException {
+			PackedStructure result = structure;
+			if (result == null) {
+				synchronized (this) {
+					result = structure;
+					if (result == null) {
+						// whatever name the source gave it, metrics and the StructureIndex use the registered one
+						result = source.load();
+						if (result != null) {
+							result = result.withName(name);
+						}
+						structure = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package coolalias.structuregen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import net.minecraft.block.Block;
+
+/**
+ * Checks block arrays for the mistakes that otherwise only show up once a broken structure
+ * is generated: rows or columns of different lengths (often a missing comma or brace that
+ * shifts everything after it), block ids outside of the valid range and metadata that
+ * doesn't fit in 4 bits.
+ *
+ * Each problem found is added to the list as one line of text, prefixed with the structure's
+ * name and the position in the array.
+ *
+ * To check everything in a registry once all blocks and hooks exist, e.g. when the server
+ * starts, use validateAll, which checks the structures in parallel and collects every problem
+ * into a single report:
+ *
+ * StructureValidator.Report report = StructureValidator.validateAll(MyStructureGenerator.structures, MyStructureGenerator.hooks);
+ * if (report.hasProblems()) {
+ *     System.err.println(report);
+ * }
+ */
+public class StructureValidator
+{
+	private StructureValidator() {}
+
+	/**
+	 * Checks a single block array, adding any problems found to the list
+	 * @param checkBlocks If true, real block ids must also exist in Block.blocksList; only use
+	 *                    this once all blocks have been registered
+	 * @return true if no problems were found
+	 */
+	public static boolean checkBlockArray(String name, int[][][][] blocks, boolean checkBlocks, List<String> problems) {
+		int found = problems.size();
+		if (blocks.length == 0 || blocks[0].length == 0) {
+			problems.add(name + ": block array is empty");
+			return false;
+		}
+		int widthX = blocks[0].length, widthZ = blocks[0][0].length;
+		for (int y = 0; y < blocks.length; ++y) {
+			if (blocks[y].length != widthX) {
+				problems.add(name + ": layer " + y + " has " + blocks[y].length + " rows instead of " + widthX);
+			}
+			for (int x = 0; x < blocks[y].length; ++x) {
+				if (blocks[y][x].length != widthZ) {
+					problems.add(name + ": layer " + y + ", row " + x + " has " + blocks[y][x].length + " blocks instead of " + widthZ);
+				}
+				for (int z = 0; z < blocks[y][x].length; ++z) {
+					int[] block = blocks[y][x][z];
+					if (block != null && block.length > 0) {
+						checkBlock(name + " at " + y + "/" + x + "/" + z, block, checkBlocks, problems);
+					}
+				}
+			}
+		}
+		return problems.size() == found;
+	}
+
+	/** Checks a single {blockID, metadata, customData1, customData2} entry */
+	private static void checkBlock(String where, int[] block, boolean checkBlocks, List<String> problems) {
+		int blockID = block[0];
+		if (block.length > PackedStructure.TUPLE_SIZE) {
+			problems.add(where + ": block has " + block.length + " values; only " + PackedStructure.TUPLE_SIZE + " are used");
+		}
+		if (blockID < 0) {
+			problems.add(where + ": invalid block id " + blockID);
+		} else if (checkBlocks && blockID > 0 && blockID < StructurePlacer.FIRST_HOOK_ID && Block.blocksList[blockID] == null) {
+			problems.add(where + ": no block registered with id " + blockID);
+		}
+		if (block.length > 1 && (block[1] < 0 || block[1] > 15)) {
+			problems.add(where + ": metadata " + block[1] + " is not between 0 and 15");
+		}
+	}
+
+	/**
+	 * Checks a packed structure: its size, that every real block id is registered and that
+	 * every custom hook id has a handler in 'hooks' returning a registered block. Only run
+	 * this once all blocks have been registered.
+	 * @param hooks       May be null to skip checking custom hooks
+	 * @param checkTuples If true, also checks the metadata and ids for being in range; not
+	 *                    needed if the block arrays were already checked with checkBlockArray
+	 * @return true if no problems were found
+	 */
+	public static boolean checkStructure(String name, PackedStructure structure, CustomHookRegistry hooks, boolean checkTuples, List<String> problems) {
+		int found = problems.size();
+		int volume = structure.getWidthX() * structure.getHeight() * structure.getWidthZ();
+		if (volume == 0) {
+			problems.add(name + ": structure is empty");
+			return false;
+		}
+		// first position using each palette entry, so problems can point at a block
+		int[] first = new int[structure.getPaletteSize()];
+		for (int i = volume - 1; i >= 0; --i) {
+			first[structure.getPaletteIndex(i)] = i;
+		}
+		for (int i = 1; i < first.length; ++i) {
+			int z = first[i] % structure.getWidthZ();
+			int x = (first[i] / structure.getWidthZ()) % structure.getWidthX();
+			int y = first[i] / (structure.getWidthZ() * structure.getWidthX());
+			String where = name + " at " + y + "/" + x + "/" + z;
+			int[] tuple = structure.getTuple(i);
+			if (checkTuples) {
+				checkBlock(where, tuple, false, problems);
+			}
+			if (tuple[0] < CustomHookRegistry.FIRST_HOOK_ID) {
+				if (tuple[0] > 0 && Block.blocksList[tuple[0]] == null) {
+					problems.add(where + ": no block registered with id " + tuple[0]);
+				}
+			} else if (hooks != null) {
+				ICustomHook handler = hooks.get(tuple[0]);
+				if (handler == null) {
+					problems.add(where + ": no custom hook registered for id " + tuple[0]);
+					continue;
+				}
+				int blockID = handler.getRealBlockID(tuple[2]);
+				if (blockID < 0 || blockID >= Block.blocksList.length || (blockID > 0 && Block.blocksList[blockID] == null)) {
+					problems.add(where + ": custom hook " + tuple[0] + " with customData1 " + tuple[2] + " gives unregistered block id " + blockID);
+				}
+			}
+		}
+		return problems.size() == found;
+	}
+
+	/**
+	 * Checks every structure in the registry using a new ForkJoinPool with one thread per
+	 * processor
+	 */
+	public static Report validateAll(StructureRegistry registry, CustomHookRegistry hooks) {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return validateAll(registry, hooks, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Checks every structure in the registry on the given pool. Structures registered from
+	 * block arrays have the arrays themselves checked as well, which is the only way to find
+	 * rows and columns of different lengths. Each structure is loaded straight from its
+	 * source and dropped once checked, so the registry doesn't end up holding every structure.
+	 * @param hooks May be null to skip checking custom hooks
+	 */
+	public static Report validateAll(StructureRegistry registry, CustomHookRegistry hooks, ForkJoinPool pool) {
+		long start = System.nanoTime();
+		int size = registry.size();
+		List<String> problems = (size == 0 ? new ArrayList<String>() : pool.invoke(new ValidateTask(registry, hooks, 0, size)));
+		return new Report(size, problems, (System.nanoTime() - start) / 1000000L);
+	}
+
+	/** Runs all checks for a single registered structure */
+	private static void validate(StructureRegistry registry, CustomHookRegistry hooks, int id, List<String> problems) {
+		String name = registry.getName(id);
+		try {
+			boolean checkTuples = true;
+			StructureRegistry.Source source = registry.getSource(id);
+			if (source instanceof StructureRegistry.BlockArraySource) {
+				List<int[][][][]> arrays = ((StructureRegistry.BlockArraySource) source).getBlockArrays();
+				if (arrays.isEmpty()) {
+					problems.add(name + ": structure has no block arrays");
+					return;
+				}
+				int n = 0;
+				for (int[][][][] blocks : arrays) {
+					if (!checkBlockArray(arrays.size() > 1 ? name + " [array " + n + "]" : name, blocks, false, problems) && (blocks.length == 0 || blocks[0].length == 0)) {
+						return; // nothing to pack
+					}
+					++n;
+				}
+				// the block ids still need checking; positions are the same once packed
+				checkTuples = false;
+			}
+			// loaded without going through the registry, which would keep it loaded for good
+			PackedStructure structure = source.load();
+			if (structure == null) {
+				problems.add(name + ": unable to load (no structure)");
+				return;
+			}
+			checkStructure(name, structure, hooks, checkTuples, problems);
+		} catch (Exception e) {
+			problems.add(name + ": unable to load (" + e + ")");
+		} catch (LinkageError e) {
+			problems.add(name + ": unable to load (" + e + ")");
+		}
+	}
+
+	/**
+	 * Checks a range of registry ids, splitting it in half until only one structure is left
+	 * so the pool can spread big and small structures evenly over its threads; problems are
+	 * returned in id order
+	 */
+	private static final class ValidateTask extends RecursiveTask<List<String>>
+	{
+		private final StructureRegistry registry;
+		private final CustomHookRegistry hooks;
+		private final int from, to;
+
+		private ValidateTask(StructureRegistry registry, CustomHookRegistry hooks, int from, int to) {
+			this.registry = registry;
+			this.hooks = hooks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<String> compute() {
+			if (to - from == 1) {
+				List<String> problems = new ArrayList<String>();
+				validate(registry, hooks, from, problems);
+				return problems;
+			}
+			int middle = (from + to) >>> 1;
+			ValidateTask upper = new ValidateTask(registry, hooks, middle, to);
+			upper.fork();
+			List<String> problems = new ValidateTask(registry, hooks, from, middle).compute();
+			problems.addAll(upper.join());
+			return problems;
+		}
+	}
+
+	/**
+	 * The combined result of validateAll
+	 */
+	public static final class Report
+	{
+		private final int structures;
+		private final List<String> problems;
+		private final long millis;
+
+		private Report(int structures, List<String> problems, long millis) {
+			this.structures = structures;
+			this.problems = problems;
+			this.millis = millis;
+		}
+
+		/** Returns the number of structures checked */
+		public int getStructureCount() {
+			return structures;
+		}
+
+		/** Returns every problem found, in registry id order */
+		public List<String> getProblems() {
+			return problems;
+		}
+
+		public boolean hasProblems() {
+			return !problems.isEmpty();
+		}
+
+		/** Returns how long the checks took, in milliseconds */
+		public long getTime() {
+			return millis;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			report.append("Checked ").append(structures).append(" structures in ").append(millis).append(" ms: ");
+			report.append(problems.isEmpty() ? "no" : String.valueOf(problems.size())).append(" problems found");
+			for (String problem : problems) {
+				report.append('\n').append(problem);
+			}
+			return report.toString();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package coolalias.structuregen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraftforge.event.ForgeSubscribe;
+import net.minecraftforge.event.world.ChunkEvent;
+import cpw.mods.fml.common.IWorldGenerator;
+
+/**
+ * Spawns registered structures during world generation without loading or generating any
+ * chunk other than the one being populated. Each structure spawns in the overworld unless
+ * another dimension is given, and never in dimensions without a sky, like the Nether or End.
+ *
+ * Each structure is planned once and split into one slice per chunk. The slice for the chunk
+ * being populated is placed right away, as is any slice whose chunk is already loaded and
+ * populated. All other slices wait in the world's PendingSlices until their chunk populates,
+ * or, if it was populated before and is only being loaded again, until it loads. Once the
+ * pending slices hold more than the set number of blocks, those of the chunks waiting longest
+ * (often chunks the players never went near) are dropped, so pending slices never take more
+ * than a bounded amount of memory and new structures keep spawning.
+ *
+ * Register it in your mod's init:
+ *
+ * StructureWorldGenerator worldGen = new StructureWorldGenerator(new MyStructureGenerator(), MyStructureGenerator.structures);
+ * worldGen.addStructure("Tutorial Home", 200, -1);
+ * GameRegistry.registerWorldGenerator(worldGen);
+ * MinecraftForge.EVENT_BUS.register(worldGen);
+ */
+public class StructureWorldGenerator implements IWorldGenerator
+{
+	/** Placer used for all slices; never notifies neighbors, as that could load other chunks */
+	private final StructurePlacer placer;
+
+	/** Plans are built on the server thread, as generation needs them right away */
+	private final StructurePlanner planner;
+
+	private final StructureRegistry structures;
+
+	private final List<Spawn> spawns = new ArrayList<Spawn>();
+
+	/** Maximum number of blocks held in pending slices per world before the oldest are dropped */
+	private int maxPendingBlocks = 1 << 20;
+
+	public StructureWorldGenerator(StructureGeneratorBase generator, StructureRegistry structures) {
+		this.placer = new StructurePlacer(generator).setNotifyNeighbors(false);
+		this.planner = new StructurePlanner(generator);
+		this.structures = structures;
+	}
+
+	/**
+	 * Spawns the named structure in the overworld in one of every 'rarity' chunks, with its
+	 * array origin 'offsetY' blocks from the surface (use -1 to sink the bottom layer into the
+	 * ground)
+	 * @throws IllegalArgumentException if the structure isn't registered
+	 */
+	public StructureWorldGenerator addStructure(String name, int rarity, int offsetY) {
+		return addStructure(name, rarity, offsetY, 0);
+	}
+
+	/**
+	 * As above, in the given dimension instead; dimensions without a sky, such as the Nether,
+	 * are never spawned in, as their highest block is the bedrock ceiling
+	 */
+	public StructureWorldGenerator addStructure(String name, int rarity, int offsetY, int dimension) {
+		int id = structures.getID(name);
+		if (id < 0) {
+			throw new IllegalArgumentException("Structure " + name + " is not registered");
+		}
+		spawns.add(new Spawn(id, Math.max(rarity, 1), offsetY, dimension));
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of blocks held in pending slices per world; each pending block
+	 * takes 8 bytes. Beyond this, the slices of the chunks waiting longest are dropped.
+	 */
+	public StructureWorldGenerator setMaxPendingBlocks(int maxPendingBlocks) {
+		this.maxPendingBlocks = maxPendingBlocks;
+		return this;
+	}
+
+	@Override
+	public void generate(Random random, int chunkX, int chunkZ, World world, IChunkProvider chunkGenerator, IChunkProvider chunkProvider) {
+		PendingSlices pending = PendingSlices.get(world);
+		applyPending(world, pending, chunkX, chunkZ);
+		if (world.provider.hasNoSky) {
+			return;
+		}
+		for (Spawn spawn : spawns) {
+			if (spawn.dimension != world.provider.dimensionId || random.nextInt(spawn.rarity) != 0) {
+				continue;
+			}
+			PackedStructure structure;
+			try {
+				structure = structures.get(spawn.structureID);
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+			int x = (chunkX << 4) + random.nextInt(16);
+			int z = (chunkZ << 4) + random.nextInt(16);
+			int y = world.getHeightValue(x, z) + spawn.offsetY;
+			String name = structures.getName(spawn.structureID);
+			StructureMetrics metrics = StructureMetrics.get(name);
+			StructureMetrics previous = StructureMetrics.enter(metrics);
+			try {
+				long start = System.nanoTime();
+				int rotations = random.nextInt(4);
+				PlacementPlan plan = planner.plan(structure, x, y, z, rotations, world.getHeight());
+				metrics.addTime(StructureMetrics.Phase.PREPARE, System.nanoTime() - start);
+				List<PlacementPlan> now = new ArrayList<PlacementPlan>(), later = new ArrayList<PlacementPlan>();
+				int laterBlocks = 0;
+				for (PlacementPlan slice : plan.splitByChunk()) {
+					PlacementPlan.ChunkGroup group = slice.getChunks().get(0);
+					if (isPopulated(chunkProvider, group.chunkX, group.chunkZ)) {
+						now.add(slice);
+					} else {
+						later.add(slice);
+						laterBlocks += slice.getBlockCount();
+					}
+				}
+				if (laterBlocks > maxPendingBlocks) {
+					continue; // too big to ever wait for all of its chunks
+				}
+				// make room first, so none of this structure's own slices are dropped
+				pending.trimTo(maxPendingBlocks - laterBlocks);
+				for (PlacementPlan slice : now) {
+					placer.apply(world, slice);
+				}
+				for (PlacementPlan slice : later) {
+					pending.add(name, slice);
+				}
+				metrics.addPlacement();
+				StructureIndex.get(world).add(name, structure.getWidthX(), structure.getHeight(), structure.getWidthZ(), x, y, z, rotations);
+			} finally {
+				StructureMetrics.exit(previous);
+			}
+		}
+	}
+
+	/**
+	 * Places slices for chunks that were populated before the structure was spawned and have
+	 * since been unloaded; those chunks will never populate again, so this is their only chance
+	 */
+	@ForgeSubscribe
+	public void onChunkLoad(ChunkEvent.Load event) {
+		Chunk chunk = event.getChunk();
+		if (!event.world.isRemote && chunk.isTerrainPopulated) {
+			applyPending(event.world, PendingSlices.get(event.world), chunk.xPosition, chunk.zPosition);
+		}
+	}
+
+	private void applyPending(World world, PendingSlices pending, int chunkX, int chunkZ) {
+		List<PendingSlices.Slice> slices = pending.remove(chunkX, chunkZ);
+		if (slices != null) {
+			for (PendingSlices.Slice slice : slices) {
+				StructureMetrics previous = StructureMetrics.enter(StructureMetrics.get(slice.name));
+				try {
+					placer.apply(world, slice.plan);
+				} finally {
+					StructureMetrics.exit(previous);
+				}
+			}
+		}
+	}
+
+	/** Returns true if the chunk is loaded and populated; never loads the chunk */
+	private static boolean isPopulated(IChunkProvider chunkProvider, int chunkX, int chunkZ) {
+		return chunkProvider.chunkExists(chunkX, chunkZ) && chunkProvider.provideChunk(chunkX, chunkZ).isTerrainPopulated;
+	}
+
+	private static final class Spawn
+	{
+		private final int structureID, rarity, offsetY, dimension;
+
+		private Spawn(int structureID, int rarity, int offsetY, int dimension) {
+			this.structureID = structureID;
+			this.rarity = rarity;
+			this.offsetY = offsetY;
+			this.dimension = dimension;
+		}
+	}
+}
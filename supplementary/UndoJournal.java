@@ -0,0 +1,272 @@
+package coolalias.structuregen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import cpw.mods.fml.common.network.PacketDispatcher;
+
+/**
+ * Records the blocks and tile entities a structure overwrites, so the placement can be undone.
+ *
+ * Nothing is kept as ItemStacks or NBT objects: each overwritten block is appended as a few
+ * bytes (its position relative to the previous record and an index into a palette of block
+ * id / metadata pairs), tile entities are written as binary NBT right after their block,
+ * and every few thousand records the buffer is written out to a temporary file. The heap
+ * only ever holds one segment of records and the palette, however many blocks are placed.
+ *
+ * UndoJournal journal = new UndoJournal();
+ * placer.place(world, structure, x, y, z, rotations, journal);
+ * journal.close();
+ * ...
+ * journal.undo(world, placer); // puts everything back and deletes the file
+ */
+public class UndoJournal
+{
+	/** Records per segment; each segment is written out and read back as a whole */
+	private static final int SEGMENT_RECORDS = 4096;
+
+	/** A segment is also written out once its buffer reaches this many bytes */
+	private static final int SEGMENT_BYTES = 1 << 18;
+
+	private final File file;
+
+	private final RandomAccessFile out;
+
+	/** Palette of blockID << 4 | meta values recorded so far, and the reverse lookup */
+	private final StructurePlacer.IntList palette = new StructurePlacer.IntList();
+	private final Map<Integer, Integer> paletteLookup = new HashMap<Integer, Integer>();
+
+	/** Current segment, encoded as it is recorded */
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 14);
+	private final DataOutputStream segment = new DataOutputStream(buffer);
+	private int segmentRecords;
+
+	/** Last position recorded in the current segment; positions are stored as differences */
+	private int lastX, lastY, lastZ;
+
+	/** File offset, length in bytes and record count of each segment written so far */
+	private final List<long[]> segments = new ArrayList<long[]>();
+
+	private long fileLength;
+
+	private int recordCount;
+
+	private boolean closed;
+
+	/**
+	 * Creates a journal backed by a new temporary file, which is deleted once undone, discarded
+	 * or when the server shuts down
+	 */
+	public UndoJournal() throws IOException {
+		file = File.createTempFile("structure", ".undo");
+		file.deleteOnExit();
+		out = new RandomAccessFile(file, "rw");
+	}
+
+	/** Returns the number of blocks recorded */
+	public int size() {
+		return recordCount;
+	}
+
+	/** Returns the number of bytes written to the journal's file so far */
+	public long getFileSize() {
+		return fileLength;
+	}
+
+	/**
+	 * Records the block about to be overwritten at x/y/z; te is its tile entity, if any, and
+	 * is saved to NBT right away
+	 */
+	public void record(int x, int y, int z, int blockID, int meta, TileEntity te) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Journal is already closed");
+		}
+		int block = (blockID << 4) | (meta & 15);
+		Integer index = paletteLookup.get(block);
+		if (index == null) {
+			index = palette.size();
+			palette.add(block);
+			paletteLookup.put(block, index);
+		}
+		writeVarInt(segment, zigZag(x - lastX));
+		writeVarInt(segment, zigZag(y - lastY));
+		writeVarInt(segment, zigZag(z - lastZ));
+		writeVarInt(segment, (index << 1) | (te != null ? 1 : 0));
+		if (te != null) {
+			NBTTagCompound compound = new NBTTagCompound();
+			te.writeToNBT(compound);
+			CompressedStreamTools.write(compound, segment);
+		}
+		lastX = x;
+		lastY = y;
+		lastZ = z;
+		++recordCount;
+		if (++segmentRecords >= SEGMENT_RECORDS || buffer.size() >= SEGMENT_BYTES) {
+			flushSegment();
+		}
+	}
+
+	/** Records the block currently in the world at x/y/z, including its tile entity */
+	public void record(World world, int x, int y, int z) throws IOException {
+		int blockID = world.getBlockId(x, y, z);
+		TileEntity te = (blockID != 0 ? world.getBlockTileEntity(x, y, z) : null);
+		record(x, y, z, blockID, world.getBlockMetadata(x, y, z), te);
+	}
+
+	/** Writes any buffered records to the file; no more blocks can be recorded afterwards */
+	public void close() throws IOException {
+		if (!closed) {
+			flushSegment();
+			closed = true;
+		}
+	}
+
+	/**
+	 * Puts back every recorded block using the placer's chunk-batched path, one segment at a
+	 * time from the last recorded to the first, so that if a position was recorded more than
+	 * once it ends up with the block from before the first record. Tile entities are restored
+	 * from their NBT afterwards. The journal is discarded once finished.
+	 * @return the number of blocks written
+	 */
+	public int undo(World world, StructurePlacer placer) throws IOException {
+		close();
+		int written = 0;
+		try {
+			for (int s = segments.size() - 1; s >= 0; --s) {
+				written += undoSegment(world, placer, segments.get(s));
+			}
+		} finally {
+			discard();
+		}
+		return written;
+	}
+
+	/** Deletes the journal's file without undoing anything */
+	public void discard() throws IOException {
+		closed = true;
+		out.close();
+		file.delete();
+	}
+
+	private int undoSegment(World world, StructurePlacer placer, long[] info) throws IOException {
+		byte[] bytes = new byte[(int) info[1]];
+		out.seek(info[0]);
+		out.readFully(bytes);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int count = (int) info[2];
+		int[] xs = new int[count], ys = new int[count], zs = new int[count], blocks = new int[count];
+		List<TileEntity> tileEntities = new ArrayList<TileEntity>();
+		int x = 0, y = 0, z = 0;
+		for (int n = 0; n < count; ++n) {
+			x += unZigZag(readVarInt(in));
+			y += unZigZag(readVarInt(in));
+			z += unZigZag(readVarInt(in));
+			int value = readVarInt(in);
+			xs[n] = x;
+			ys[n] = y;
+			zs[n] = z;
+			blocks[n] = palette.get(value >>> 1);
+			if ((value & 1) != 0) {
+				TileEntity te = TileEntity.createAndLoadEntity(CompressedStreamTools.read(in));
+				if (te != null) {
+					tileEntities.add(te);
+				}
+			}
+		}
+		// later writes to the same position win, so add the records last to first
+		PlacementPlan.Builder builder = new PlacementPlan.Builder();
+		for (int n = count - 1; n >= 0; --n) {
+			builder.addBlock(xs[n], ys[n], zs[n], blocks[n] >> 4, blocks[n] & 15, true);
+		}
+		int written = placer.apply(world, builder.build()).getBlocksWritten();
+		for (int n = tileEntities.size() - 1; n >= 0; --n) {
+			TileEntity te = tileEntities.get(n);
+			world.setBlockTileEntity(te.xCoord, te.yCoord, te.zCoord, te);
+			// apply already sent the blocks to clients, before their tile entities were back
+			Packet packet = te.getDescriptionPacket();
+			if (packet != null && world instanceof WorldServer) {
+				PacketDispatcher.sendPacketToAllAround(te.xCoord + 0.5D, te.yCoord + 0.5D, te.zCoord + 0.5D, 64.0D, world.provider.dimensionId, packet);
+			}
+		}
+		return written;
+	}
+
+	private void flushSegment() throws IOException {
+		if (segmentRecords == 0) {
+			return;
+		}
+		segment.flush();
+		out.seek(fileLength);
+		buffer.writeTo(new RandomAccessFileOutput(out));
+		segments.add(new long[] {fileLength, buffer.size(), segmentRecords});
+		fileLength += buffer.size();
+		buffer.reset();
+		segmentRecords = 0;
+		lastX = lastY = lastZ = 0;
+	}
+
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	/** Lets ByteArrayOutputStream.writeTo write straight into the file */
+	private static final class RandomAccessFileOutput extends OutputStream
+	{
+		private final RandomAccessFile file;
+
+		private RandomAccessFileOutput(RandomAccessFile file) {
+			this.file = file;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			file.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			file.write(b, off, len);
+		}
+	}
+}